@@ -0,0 +1,167 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Hands the records of an asynchronous query over from the thread executing
+ * the query to the thread iterating the results. Records are mapped on the
+ * query thread, where the database is bound, and passed through a bounded
+ * buffer: the query thread blocks while the buffer is full, so no more than
+ * <code>bufferSize</code> results are held in memory at any time.
+ * <p>
+ * A consumer that stops reading without closing the stream, e.g. after
+ * <code>limit(n)</code>, would keep the query thread and its database handle
+ * forever. So if the buffer stays full for <code>timeout</code> milliseconds
+ * the query is cancelled; reading on afterwards fails.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class AsyncQueryIterator<T> implements Iterator<T>, OCommandResultListener, AutoCloseable {
+
+	private static final Object END = new Object();
+	private static final long OFFER_TIMEOUT = 100;
+
+	private final BlockingQueue<Object> queue;
+	private final long timeout;
+	private final Function<ODocument, T> mapper;
+	private volatile boolean closed;
+	private volatile boolean abandoned;
+	private volatile boolean ended;
+	private boolean done;
+	private Object next;
+
+	/**
+	 * @param timeout
+	 *            milliseconds the query thread waits for the consumer to make
+	 *            room in the buffer before it cancels the query
+	 */
+	AsyncQueryIterator(int bufferSize, long timeout, Function<ODocument, T> mapper) {
+		this.queue = new ArrayBlockingQueue<>(bufferSize);
+		this.timeout = timeout;
+		this.mapper = mapper;
+	}
+
+	@Override
+	public boolean result(Object record) {
+		if (closed) {
+			return false;
+		}
+		ODocument doc = (ODocument) ((OIdentifiable) record).getRecord();
+		return put(mapper.apply(doc));
+	}
+
+	@Override
+	public void end() {
+		if (!ended) {
+			ended = true;
+			put(END);
+		}
+	}
+
+	public Object getResult() {
+		return null;
+	}
+
+	/**
+	 * Ends the iteration with the failure of the query thread.
+	 */
+	void fail(Throwable cause) {
+		if (!ended) {
+			ended = true;
+			put(new Failure(cause));
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (done) {
+			return false;
+		}
+		try {
+			while (next == null) {
+				next = queue.poll(OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (next == null && abandoned) {
+					done = true;
+					throw new RuntimeException("Query cancelled, its results were not read for " + timeout + " ms");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for query results", e);
+		}
+		if (next == END) {
+			done = true;
+			next = null;
+			return false;
+		}
+		if (next instanceof Failure) {
+			done = true;
+			Throwable cause = ((Failure) next).cause;
+			next = null;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T result = (T) next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * Stops the query; the query thread notices it with its next result.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		done = true;
+		queue.clear();
+	}
+
+	private boolean put(Object item) {
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			while (!closed) {
+				if (queue.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+				if (System.currentTimeMillis() >= deadline) {
+					// the consumer is gone, let the query thread release its handle
+					abandoned = true;
+					closed = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private static final class Failure {
+		final Throwable cause;
+
+		Failure(Throwable cause) {
+			this.cause = cause;
+		}
+	}
+
+}
@@ -0,0 +1,360 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import org.greenscape.greendb.persistence.api.ChangeEvent;
+import org.greenscape.greendb.persistence.api.ChangeListener;
+import org.greenscape.greendb.persistence.api.OverflowPolicy;
+import org.greenscape.greendb.persistence.api.Subscription;
+import org.greenscape.persistence.DocumentModel;
+
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseListener;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Delivers the records written through GreenDB's database handles to the
+ * subscribers of their model. OrientDB 1.7 has no live queries, so changes are
+ * picked up by a record hook on every handle GreenDB binds while there are
+ * subscribers; changes made by other processes are not seen.
+ * <p>
+ * The hook copies a changed document once per subscriber. Changes made in a
+ * transaction are held back until it commits and dropped if it rolls back.
+ * Each subscriber has a bounded buffer, drained by one task at a time on the
+ * executor, which hydrates the documents and calls the listener.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class ChangeFeed {
+
+	private final ConcurrentMap<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	private final BiFunction<Class<?>, ODocument, DocumentModel> hydrator;
+	private final BiConsumer<String, Throwable> errors;
+	private final ThreadLocal<List<Runnable>> uncommitted = new ThreadLocal<>();
+	private final Hook hook = new Hook();
+	// handles compare equal by database name, so they are told apart by identity
+	private final Set<ODatabaseDocument> attached = Collections
+			.newSetFromMap(new IdentityHashMap<ODatabaseDocument, Boolean>());
+	private volatile boolean active;
+
+	/**
+	 * @param hydrator
+	 *            turns a document into a model of the given class
+	 * @param errors
+	 *            reports failures of hydrators and listeners
+	 */
+	ChangeFeed(ExecutorService executor, BiFunction<Class<?>, ODocument, DocumentModel> hydrator,
+			BiConsumer<String, Throwable> errors) {
+		this.executor = executor;
+		this.hydrator = hydrator;
+		this.errors = errors;
+	}
+
+	/**
+	 * @return <code>true</code> once there was a subscriber
+	 */
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Registers the hook on a database handle once. Closed handles are
+	 * forgotten when a new one is attached.
+	 */
+	void attach(ODatabaseDocument db) {
+		synchronized (attached) {
+			if (attached.contains(db)) {
+				return;
+			}
+			attached.removeIf(ODatabaseDocument::isClosed);
+			attached.add(db);
+		}
+		db.registerHook(hook);
+		db.registerListener(hook);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Subscription subscribe(String modelName, Class<?> modelClass, ChangeListener<?> listener, int bufferSize,
+			OverflowPolicy policy) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		}
+		Subscriber subscriber = new Subscriber(modelName, modelClass, (ChangeListener) listener, bufferSize, policy);
+		subscribers.computeIfAbsent(modelName.toLowerCase(), key -> new CopyOnWriteArrayList<>()).add(subscriber);
+		active = true;
+		return subscriber;
+	}
+
+	/**
+	 * Closes all subscriptions.
+	 */
+	void close() {
+		for (List<Subscriber> list : subscribers.values()) {
+			for (Subscriber subscriber : list) {
+				subscriber.close();
+			}
+		}
+	}
+
+	private void changed(ChangeEvent.Type type, ODocument doc) {
+		String className = doc.getClassName();
+		List<Subscriber> list = className == null ? null : subscribers.get(className.toLowerCase());
+		if (list == null || list.isEmpty()) {
+			return;
+		}
+		// record ids created in a transaction are final after the commit
+		ORID rid = doc.getIdentity();
+		List<Runnable> offers = new ArrayList<>(list.size());
+		for (Subscriber subscriber : list) {
+			ODocument copy = doc.copy();
+			offers.add(() -> subscriber.offer(new Change(type, rid, copy)));
+		}
+		ODatabaseRecord db = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+		if (db != null && db.getTransaction().isActive()) {
+			List<Runnable> pending = uncommitted.get();
+			if (pending == null) {
+				pending = new ArrayList<>();
+				uncommitted.set(pending);
+			}
+			pending.addAll(offers);
+		} else {
+			for (Runnable offer : offers) {
+				offer.run();
+			}
+		}
+	}
+
+	private void committed() {
+		List<Runnable> pending = uncommitted.get();
+		uncommitted.remove();
+		if (pending != null) {
+			for (Runnable offer : pending) {
+				offer.run();
+			}
+		}
+	}
+
+	private static final class Change {
+		final ChangeEvent.Type type;
+		final ORID rid;
+		final ODocument doc;
+
+		Change(ChangeEvent.Type type, ORID rid, ODocument doc) {
+			this.type = type;
+			this.rid = rid;
+			this.doc = doc;
+		}
+	}
+
+	private final class Hook extends ODocumentHookAbstract implements ODatabaseListener {
+
+		@Override
+		public void onRecordAfterCreate(ODocument doc) {
+			changed(ChangeEvent.Type.INSERT, doc);
+		}
+
+		@Override
+		public void onRecordAfterUpdate(ODocument doc) {
+			changed(ChangeEvent.Type.UPDATE, doc);
+		}
+
+		@Override
+		public void onRecordAfterDelete(ODocument doc) {
+			changed(ChangeEvent.Type.DELETE, doc);
+		}
+
+		@Override
+		public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+			return DISTRIBUTED_EXECUTION_MODE.SOURCE_NODE;
+		}
+
+		@Override
+		public void onAfterTxCommit(ODatabase iDatabase) {
+			committed();
+		}
+
+		@Override
+		public void onAfterTxRollback(ODatabase iDatabase) {
+			uncommitted.remove();
+		}
+
+		@Override
+		public void onCreate(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onDelete(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onOpen(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onBeforeTxBegin(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onBeforeTxRollback(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onBeforeTxCommit(ODatabase iDatabase) {
+		}
+
+		@Override
+		public void onClose(ODatabase iDatabase) {
+		}
+
+		@Override
+		public boolean onCorruptionRepairDatabase(ODatabase iDatabase, String iReason, String iWhatWillbeFixed) {
+			return false;
+		}
+	}
+
+	private final class Subscriber implements Subscription, Runnable {
+		final String modelName;
+		final Class<?> modelClass;
+		final ChangeListener<DocumentModel> listener;
+		final int capacity;
+		final OverflowPolicy policy;
+		private final Queue<Change> buffer = new ArrayDeque<>();
+		private long dropped;
+		private long gap;
+		private boolean scheduled;
+		private boolean closed;
+		private boolean closeNotified;
+
+		Subscriber(String modelName, Class<?> modelClass, ChangeListener<DocumentModel> listener, int capacity,
+				OverflowPolicy policy) {
+			this.modelName = modelName;
+			this.modelClass = modelClass;
+			this.listener = listener;
+			this.capacity = capacity;
+			this.policy = policy;
+		}
+
+		synchronized void offer(Change change) {
+			if (closed) {
+				return;
+			}
+			if (buffer.size() == capacity) {
+				switch (policy) {
+				case DROP_OLDEST:
+					buffer.poll();
+					break;
+				case DROP_NEWEST:
+					dropped++;
+					gap++;
+					return;
+				case CLOSE:
+					dropped += buffer.size() + 1;
+					close();
+					return;
+				}
+				dropped++;
+				gap++;
+			}
+			buffer.add(change);
+			schedule();
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				buffer.clear();
+				schedule();
+			}
+			List<Subscriber> list = subscribers.get(modelName.toLowerCase());
+			if (list != null) {
+				list.remove(this);
+			}
+		}
+
+		@Override
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public synchronized long getDropped() {
+			return dropped;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Change change;
+				long lost;
+				boolean notifyClose = false;
+				synchronized (this) {
+					change = buffer.poll();
+					lost = gap;
+					if (change == null) {
+						scheduled = false;
+						if (closed && !closeNotified) {
+							closeNotified = true;
+							notifyClose = true;
+						} else {
+							return;
+						}
+					} else {
+						gap = 0;
+					}
+				}
+				if (notifyClose) {
+					try {
+						listener.onClose();
+					} catch (RuntimeException e) {
+						errors.accept("Change listener of model " + modelName + " failed to close", e);
+					}
+					return;
+				}
+				try {
+					DocumentModel model = hydrator.apply(modelClass, change.doc);
+					listener.onChange(new ChangeEvent<>(change.type, modelName, change.rid.toString(), model, lost));
+				} catch (RuntimeException e) {
+					errors.accept("Change listener of model " + modelName + " failed", e);
+				}
+			}
+		}
+
+		private void schedule() {
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				// the feed is shutting down
+				scheduled = false;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+
+/**
+ * Spreads the records of a model over several clusters, as configured by the
+ * <code>clusters.&lt;modelName&gt;</code> component property: the number of
+ * clusters, or <code>cores</code> for one per available processor, optionally
+ * followed by the strategy that picks the cluster of a new record, e.g.
+ * <code>cores, thread-affine</code>.
+ * <p>
+ * With <code>round-robin</code>, the default, consecutive inserts go to
+ * consecutive clusters. With <code>thread-affine</code> every thread keeps
+ * writing to the same cluster, so that concurrent writers rarely meet on one.
+ * Models without a layout are written to the default cluster of their class.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class ClusterLayout {
+
+	enum Strategy {
+		ROUND_ROBIN, THREAD_AFFINE
+	}
+
+	private final Map<String, Spec> specs = new HashMap<>();
+	private final ConcurrentMap<String, String[]> clusters = new ConcurrentHashMap<>();
+
+	/**
+	 * @param config
+	 *            the values of the <code>clusters.</code> properties, by model
+	 *            name
+	 */
+	ClusterLayout(Map<String, String[]> config) {
+		for (Map.Entry<String, String[]> entry : config.entrySet()) {
+			specs.put(entry.getKey().toLowerCase(), parse(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Adds the missing clusters of a sharded model to its class. The extra
+	 * clusters are named after the class, suffixed by their number.
+	 */
+	void create(ODatabaseDocument db, OClass cls) {
+		String model = cls.getName().toLowerCase();
+		Spec spec = specs.get(model);
+		if (spec == null) {
+			return;
+		}
+		for (int i = cls.getClusterIds().length; i < spec.count; i++) {
+			db.command(new OCommandSQL("alter class " + model + " addcluster " + model + "_" + i)).execute();
+		}
+		clusters.remove(model);
+	}
+
+	/**
+	 * @return the cluster for a new record of the model, or <code>null</code>
+	 *         for the default cluster of its class
+	 */
+	String select(ODatabaseDocument db, String modelName) {
+		String model = modelName.toLowerCase();
+		Spec spec = specs.get(model);
+		if (spec == null) {
+			return null;
+		}
+		String[] names = clusters.computeIfAbsent(model, key -> names(db, key));
+		if (names.length < 2) {
+			return null;
+		}
+		long index;
+		if (spec.strategy == Strategy.THREAD_AFFINE) {
+			index = Thread.currentThread().getId();
+		} else {
+			index = spec.next.getAndIncrement() & Integer.MAX_VALUE;
+		}
+		return names[(int) (index % names.length)];
+	}
+
+	private static String[] names(ODatabaseDocument db, String model) {
+		OClass cls = db.getMetadata().getSchema().getClass(model);
+		if (cls == null) {
+			return new String[0];
+		}
+		int[] ids = cls.getClusterIds();
+		String[] names = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			names[i] = db.getClusterNameById(ids[i]);
+		}
+		return names;
+	}
+
+	private static Spec parse(String modelName, String[] values) {
+		if (values.length == 0 || values.length > 2) {
+			throw new RuntimeException("Invalid cluster layout for model " + modelName
+					+ ", expected <count>[, round-robin|thread-affine]");
+		}
+		int count;
+		if (values[0].equalsIgnoreCase("cores")) {
+			count = Runtime.getRuntime().availableProcessors();
+		} else {
+			try {
+				count = Integer.parseInt(values[0]);
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("Invalid cluster count `" + values[0] + "` for model " + modelName, e);
+			}
+		}
+		if (count < 1) {
+			throw new RuntimeException("Invalid cluster count `" + values[0] + "` for model " + modelName);
+		}
+		Strategy strategy = Strategy.ROUND_ROBIN;
+		if (values.length == 2) {
+			try {
+				strategy = Strategy.valueOf(values[1].trim().replace('-', '_').toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException("Unknown cluster selection " + values[1] + " for model " + modelName
+						+ ", expected round-robin or thread-affine");
+			}
+		}
+		return new Spec(count, strategy);
+	}
+
+	private static final class Spec {
+		final int count;
+		final Strategy strategy;
+		final AtomicInteger next = new AtomicInteger();
+
+		Spec(int count, Strategy strategy) {
+			this.count = count;
+			this.strategy = strategy;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed read access to the component properties of {@link GreenDBPersistence}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class Configuration {
+
+	private final Map<String, Object> properties;
+
+	Configuration(Map<String, Object> properties) {
+		this.properties = properties == null ? Collections.<String, Object> emptyMap() : properties;
+	}
+
+	boolean getBoolean(String key, boolean defaultValue) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		return Boolean.parseBoolean(value.toString().trim());
+	}
+
+	int getInt(String key, int defaultValue) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		try {
+			return Integer.parseInt(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid integer value `" + value + "` for property " + key, e);
+		}
+	}
+
+	long getLong(String key, long defaultValue) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		try {
+			return Long.parseLong(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid long value `" + value + "` for property " + key, e);
+		}
+	}
+
+	String getString(String key, String defaultValue) {
+		Object value = properties.get(key);
+		return value == null ? defaultValue : value.toString().trim();
+	}
+
+	/**
+	 * @return the comma separated values of a property, or an empty array
+	 */
+	String[] getStringArray(String key) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return new String[0];
+		}
+		if (value instanceof String[]) {
+			return (String[]) value;
+		}
+		return split(value.toString());
+	}
+
+	/**
+	 * @return the comma separated values of all properties starting with the
+	 *         prefix, keyed by the rest of the property name
+	 */
+	Map<String, String[]> getStringArrays(String prefix) {
+		Map<String, String[]> values = new HashMap<>();
+		for (String key : properties.keySet()) {
+			if (key.startsWith(prefix) && key.length() > prefix.length()) {
+				values.put(key.substring(prefix.length()), getStringArray(key));
+			}
+		}
+		return values;
+	}
+
+	private String[] split(String value) {
+		String trimmed = value.trim();
+		if (trimmed.isEmpty()) {
+			return new String[0];
+		}
+		return trimmed.split("\\s*,\\s*");
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenscape.greendb.persistence.api.Criteria;
+
+/**
+ * Compiles {@link Criteria} to parameterized SQL. The statement depends only
+ * on the shape of the criteria, i.e. model, properties, operators, order and
+ * projection. Values are bound as the named parameters <code>p0</code>,
+ * <code>p1</code>, ... in predicate order.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+final class CriteriaCompiler {
+
+	/** Alias of the record id in projections. */
+	static final String PROJECTION_RID = "_rid";
+
+	private CriteriaCompiler() {
+	}
+
+	static String select(Criteria<?> criteria) {
+		StringBuilder query = new StringBuilder("select ");
+		List<String> projection = criteria.getProjection();
+		if (!projection.isEmpty()) {
+			query.append("@rid as ").append(PROJECTION_RID);
+			for (String property : projection) {
+				query.append(", ").append(property);
+			}
+			query.append(' ');
+		}
+		query.append("from ").append(criteria.getModelName().toLowerCase());
+		where(query, criteria);
+		List<Criteria.Order> order = criteria.getOrder();
+		if (!order.isEmpty()) {
+			query.append(" order by ");
+			for (Criteria.Order key : order) {
+				query.append(key.getProperty()).append(key.isAscending() ? " asc, " : " desc, ");
+			}
+			query.setLength(query.length() - 2);
+		}
+		return query.toString();
+	}
+
+	static String count(Criteria<?> criteria) {
+		StringBuilder query = new StringBuilder("select count(*) from ").append(criteria.getModelName()
+				.toLowerCase());
+		where(query, criteria);
+		return query.toString();
+	}
+
+	static String delete(Criteria<?> criteria) {
+		StringBuilder query = new StringBuilder("delete from ").append(criteria.getModelName().toLowerCase());
+		where(query, criteria);
+		return query.toString();
+	}
+
+	/**
+	 * @return the values of the criteria, keyed by parameter name
+	 */
+	static Map<String, Object> parameters(Criteria<?> criteria) {
+		Map<String, Object> params = new HashMap<>();
+		int i = 0;
+		for (Criteria.Predicate predicate : criteria.getPredicates()) {
+			for (Object value : predicate.getValues()) {
+				params.put("p" + i++, value);
+			}
+		}
+		return params;
+	}
+
+	private static void where(StringBuilder query, Criteria<?> criteria) {
+		List<Criteria.Predicate> predicates = criteria.getPredicates();
+		if (predicates.isEmpty()) {
+			return;
+		}
+		query.append(" where ");
+		int i = 0;
+		for (Criteria.Predicate predicate : predicates) {
+			Criteria.Operator operator = predicate.getOperator();
+			query.append(predicate.getProperty()).append(' ').append(operator.getSql());
+			switch (operator) {
+			case IS_NULL:
+			case IS_NOT_NULL:
+				break;
+			case BETWEEN:
+				query.append(" :p").append(i++).append(" and :p").append(i++);
+				break;
+			case IN:
+				query.append(" (:p").append(i++).append(')');
+				break;
+			default:
+				query.append(" :p").append(i++);
+			}
+			query.append(" and ");
+		}
+		query.setLength(query.length() - 5);
+	}
+
+}
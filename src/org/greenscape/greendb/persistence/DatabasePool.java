@@ -0,0 +1,138 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.greenscape.greendb.Connection;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+
+/**
+ * A bounded pool of {@link ODatabaseDocument} handles. Every handle is opened
+ * through {@link Connection#getDatabaseDocument()}, so the connection must hand
+ * out a new database instance per call for the pool to be useful.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class DatabasePool {
+
+	private final Connection connection;
+	private final long acquireTimeout;
+	private final Semaphore permits;
+	private final BlockingDeque<ODatabaseDocument> idle = new LinkedBlockingDeque<>();
+	private final Set<ODatabaseDocument> handles = Collections
+			.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ODatabaseDocument, Boolean>()));
+	private volatile boolean closed;
+
+	/**
+	 * @param connection
+	 *            the connection handles are opened from
+	 * @param minSize
+	 *            number of handles opened up front
+	 * @param maxSize
+	 *            maximum number of handles borrowed at the same time
+	 * @param acquireTimeout
+	 *            milliseconds to wait for a free handle before failing
+	 */
+	DatabasePool(Connection connection, int minSize, int maxSize, long acquireTimeout) {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		this.connection = connection;
+		this.acquireTimeout = acquireTimeout;
+		this.permits = new Semaphore(maxSize, true);
+		for (int i = 0; i < minSize; i++) {
+			idle.offer(open());
+		}
+	}
+
+	/**
+	 * Borrows a handle, waiting at most the configured acquire timeout.
+	 */
+	ODatabaseDocument acquire() {
+		if (closed) {
+			throw new IllegalStateException("Database pool is closed");
+		}
+		try {
+			if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+				throw new RuntimeException("Timed out after " + acquireTimeout + " ms waiting for a database handle");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a database handle", e);
+		}
+		try {
+			ODatabaseDocument db = idle.pollFirst();
+			while (db != null && db.isClosed()) {
+				handles.remove(db);
+				db = idle.pollFirst();
+			}
+			return db == null ? open() : db;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a handle borrowed through {@link #acquire()}. Handles that do not
+	 * belong to this pool, or that are returned after the pool was closed, are
+	 * closed instead.
+	 */
+	void release(ODatabaseDocument db) {
+		if (!handles.contains(db)) {
+			close(db);
+			return;
+		}
+		try {
+			if (db.isClosed()) {
+				handles.remove(db);
+			} else if (closed) {
+				handles.remove(db);
+				db.close();
+			} else {
+				if (db.getTransaction().isActive()) {
+					db.rollback();
+				}
+				idle.offerFirst(db);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes all idle handles. Handles still borrowed are closed when they are
+	 * released.
+	 */
+	void close() {
+		closed = true;
+		ODatabaseDocument db;
+		while ((db = idle.pollFirst()) != null) {
+			handles.remove(db);
+			close(db);
+		}
+	}
+
+	private ODatabaseDocument open() {
+		ODatabaseDocument db = connection.getDatabaseDocument();
+		if (db == null) {
+			throw new RuntimeException("Connection did not provide a database");
+		}
+		handles.add(db);
+		return db;
+	}
+
+	private void close(ODatabaseDocument db) {
+		if (!db.isClosed()) {
+			db.close();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package org.greenscape.greendb.persistence;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.greenscape.persistence.DocumentModel;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Remembers the persisted state of models read or written through the
+ * service, so that an update can write only the properties that changed.
+ * Models are held weakly and by identity; a snapshot disappears together with
+ * its model.
+ * <p>
+ * Only immutable values, e.g. strings and numbers, are compared. Any other
+ * value, e.g. a collection, map, array or date, may have been changed in
+ * place and is written on every update. The snapshot of a model read or
+ * written in full keeps a reference to its document and reads the stored
+ * values from it only when the model is updated, so hydration copies nothing.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class DirtyTracker {
+
+	private static final Set<Class<?>> IMMUTABLE = new HashSet<>(Arrays.<Class<?>> asList(String.class,
+			Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+			Double.class, BigInteger.class, BigDecimal.class));
+
+	private final Map<IdentityKey, Snapshot> snapshots = new ConcurrentHashMap<>();
+	private final ReferenceQueue<DocumentModel> collected = new ReferenceQueue<>();
+
+	/**
+	 * Records the state of a model as it is stored in a document. The document
+	 * must not be changed afterwards, except by reloading it.
+	 */
+	void track(DocumentModel model, ODocument doc) {
+		expunge();
+		snapshots.put(new IdentityKey(model, collected), new Snapshot(doc.getIdentity().toString(), doc
+				.getVersion(), doc, null));
+	}
+
+	/**
+	 * Records the state of a model as it is stored in the given record version.
+	 */
+	void track(DocumentModel model, String rid, int version, Collection<String> ignored) {
+		expunge();
+		Map<String, Object> values = new HashMap<>();
+		for (Map.Entry<String, Object> property : model.getProperties().entrySet()) {
+			if (!ignored.contains(property.getKey()) && isImmutable(property.getValue())) {
+				values.put(property.getKey(), property.getValue());
+			}
+		}
+		snapshots.put(new IdentityKey(model, collected), new Snapshot(rid, version, null, values));
+	}
+
+	void forget(DocumentModel model) {
+		snapshots.remove(new IdentityKey(model, null));
+	}
+
+	Snapshot get(DocumentModel model) {
+		return snapshots.get(new IdentityKey(model, null));
+	}
+
+	private void expunge() {
+		Reference<? extends DocumentModel> ref;
+		while ((ref = collected.poll()) != null) {
+			snapshots.remove(ref);
+		}
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof Enum || IMMUTABLE.contains(value.getClass());
+	}
+
+	/**
+	 * The state of a model at a record version, held either as the document
+	 * it was read from or written to, or as the immutable values of the model.
+	 */
+	static final class Snapshot {
+		final String rid;
+		final int version;
+		private final ODocument doc;
+		private final Map<String, Object> values;
+
+		Snapshot(String rid, int version, ODocument doc, Map<String, Object> values) {
+			this.rid = rid;
+			this.version = version;
+			this.doc = doc;
+			this.values = values;
+		}
+
+		/**
+		 * Properties missing from the model are not reported; like a full
+		 * update, a partial update leaves them untouched. Properties that may
+		 * be mutable are always reported.
+		 *
+		 * @return the changes of the model since the snapshot, or
+		 *         <code>null</code> if they cannot be expressed as field
+		 *         updates, e.g. because an embedded model is involved
+		 */
+		Changes diff(DocumentModel model, Collection<String> ignored) {
+			Changes changes = new Changes();
+			Map<String, Object> properties = model.getProperties();
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				String name = property.getKey();
+				if (ignored.contains(name)) {
+					continue;
+				}
+				Object value = property.getValue();
+				if (value instanceof DocumentModel) {
+					// embedded models are mutated in place; their changes are not tracked
+					return null;
+				}
+				if (!isImmutable(value) || !isStored(name, value)) {
+					changes.set.put(name, value);
+				}
+			}
+			return changes;
+		}
+
+		private boolean isStored(String name, Object value) {
+			if (doc != null) {
+				// changed since, e.g. by a write that was not committed
+				if (doc.isDirty() || !doc.containsField(name)) {
+					return false;
+				}
+				Object stored = doc.rawField(name);
+				return value == null ? stored == null : value.equals(stored);
+			}
+			Object stored = values.get(name);
+			return value == null ? stored == null && values.containsKey(name) : value.equals(stored);
+		}
+	}
+
+	/**
+	 * Changed properties and their new values.
+	 */
+	static final class Changes {
+		final Map<String, Object> set = new LinkedHashMap<>();
+
+		boolean isEmpty() {
+			return set.isEmpty();
+		}
+	}
+
+	private static final class IdentityKey extends WeakReference<DocumentModel> {
+		private final int hash;
+
+		IdentityKey(DocumentModel model, ReferenceQueue<DocumentModel> queue) {
+			super(model, queue);
+			this.hash = System.identityHashCode(model);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object model = get();
+			return model != null && model == ((IdentityKey) obj).get();
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.greenscape.persistence.DocumentModel;
+import org.greenscape.persistence.annotations.Model;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Copies between models and documents. Models keep their state in the
+ * property map of {@link DocumentModel}, so both directions work on that map
+ * and there are no per-class accessors to generate; the only thing resolved
+ * per model class is its model name, cached so the annotation is not looked
+ * up on every call.
+ * <p>
+ * Both directions make a single pass over the source: writes iterate the
+ * property entries of the model, reads iterate the fields of the document
+ * without listing their names first. Only links are read through
+ * {@link ODocument#field(String)}, so the linked record is loaded as before.
+ * <p>
+ * The record id properties of a model are never stored; reads set them from
+ * the identity of the document.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+final class DocumentMapper {
+
+	/** Property holding the record id as a string. */
+	static final String ID_FIELD = "id";
+	/** Properties holding the record id. */
+	static final Collection<String> RECORD_ID_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays
+			.asList(ID_FIELD, DocumentModel.ID)));
+
+	/** Model names by class, empty for classes without {@link Model}. */
+	private static final ClassValue<String> MODEL_NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			Model model = type.getAnnotation(Model.class);
+			if (model == null) {
+				return "";
+			}
+			return model.name() == null || model.name().isEmpty() ? type.getSimpleName() : model.name();
+		}
+	};
+
+	private DocumentMapper() {
+	}
+
+	static boolean hasModelName(Class<?> clazz) {
+		return !MODEL_NAMES.get(clazz).isEmpty();
+	}
+
+	/**
+	 * @throws RuntimeException
+	 *             if the class is not annotated with {@link Model}
+	 */
+	static String getModelName(Class<?> clazz) {
+		String modelName = MODEL_NAMES.get(clazz);
+		if (modelName.isEmpty()) {
+			throw new RuntimeException("No Model annotation found on class " + clazz.getCanonicalName());
+		}
+		return modelName;
+	}
+
+	/**
+	 * @return the name of the OrientDB class of the model
+	 * @see #getModelName(Class)
+	 */
+	static String getClassName(Class<?> clazz) {
+		return getModelName(clazz).toLowerCase();
+	}
+
+	/**
+	 * Copies the fields of a document into a model.
+	 *
+	 * @param embedded
+	 *            turns embedded documents into models; returns
+	 *            <code>null</code> for documents that are not a model, whose
+	 *            field is then skipped
+	 */
+	static void read(DocumentModel model, ODocument doc, Function<ODocument, DocumentModel> embedded) {
+		for (Map.Entry<String, Object> field : doc) {
+			Object value = field.getValue();
+			if (value instanceof OIdentifiable && !(value instanceof ODocument)) {
+				value = doc.field(field.getKey());
+			}
+			read(model, field.getKey(), value, embedded);
+		}
+		identify(model, doc.getIdentity());
+	}
+
+	/**
+	 * Sets the record id properties of a model.
+	 */
+	static void identify(DocumentModel model, ORID rid) {
+		if (rid.isValid()) {
+			model.setProperty(ID_FIELD, rid.toString());
+		}
+		model.setProperty(DocumentModel.ID, rid);
+	}
+
+	/**
+	 * Copies a single field value into a model.
+	 *
+	 * @see #read(DocumentModel, ODocument, Function)
+	 */
+	static void read(DocumentModel model, String field, Object value, Function<ODocument, DocumentModel> embedded) {
+		if (RECORD_ID_PROPERTIES.contains(field)) {
+			// stored by earlier versions, the identity of the document wins
+			return;
+		}
+		if (value instanceof ODocument) {
+			DocumentModel obj = embedded.apply((ODocument) value);
+			if (obj != null) {
+				model.setProperty(field, obj);
+			}
+		} else {
+			model.setProperty(field, value);
+		}
+	}
+
+	/**
+	 * @return a new document holding an embedded model, named after its
+	 *         property like the embedded documents written by
+	 *         {@link #write(ODocument, Map, boolean)}
+	 */
+	static ODocument embed(String name, DocumentModel model) {
+		ODocument subdoc = new ODocument(name.toLowerCase());
+		write(subdoc, model.getProperties(), true);
+		return subdoc;
+	}
+
+	/**
+	 * Copies the properties of a model into a document. Embedded models are
+	 * written to a document of the class named after their property; on an
+	 * update the existing embedded document is updated in place. Record id
+	 * fields stored by earlier versions are removed on an update, since a
+	 * strict class does not declare them.
+	 */
+	static void write(ODocument doc, Map<String, Object> properties, boolean create) {
+		if (!create) {
+			for (String field : RECORD_ID_PROPERTIES) {
+				if (doc.containsField(field)) {
+					doc.removeField(field);
+				}
+			}
+		}
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			if (RECORD_ID_PROPERTIES.contains(property.getKey())) {
+				continue;
+			}
+			Object value = property.getValue();
+			// TODO: what about null values?
+			if (value instanceof DocumentModel) {
+				String name = property.getKey();
+				ODocument subdoc = create ? null : doc.<ODocument> field(name);
+				if (subdoc == null) {
+					subdoc = new ODocument(name.toLowerCase());
+				}
+				write(subdoc, ((DocumentModel) value).getProperties(), create);
+				doc.field(name, subdoc);
+			} else {
+				doc.field(property.getKey(), value);
+			}
+		}
+	}
+
+}
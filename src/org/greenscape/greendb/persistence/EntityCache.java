@@ -0,0 +1,228 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.greenscape.greendb.persistence.api.CacheStatistics;
+import org.greenscape.persistence.DocumentModel;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * In-process cache of loaded documents, keyed by record id and by model id.
+ * Entries are evicted least recently used first once the cache is full, and
+ * expire after a fixed time to live. Only models enabled in the cache are
+ * stored.
+ * <p>
+ * The cache keeps its own copy of every document and hands out a fresh copy
+ * on every hit, so models hydrated from it never share state.
+ * <p>
+ * Every invalidation bumps the version of its model, clearing the cache bumps
+ * the version of all models. A document is only stored if the version of its
+ * model is still the one stamped before it was loaded, so a reader cannot put
+ * back a copy that a concurrent write invalidated in the meantime, while
+ * writes to other models do not keep it from being cached.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class EntityCache {
+
+	private final int maxSize;
+	private final long timeToLive;
+	private final boolean allModels;
+	private final Set<String> models = new HashSet<>();
+
+	private final Map<String, Entry> entries;
+	private final Map<String, String> modelIds = new HashMap<>();
+	private long hits;
+	private long misses;
+	private long evictions;
+	private final Map<String, Long> versions = new HashMap<>();
+	private long sequence;
+	private long cleared;
+
+	/**
+	 * @param models
+	 *            names of the cached models, <code>*</code> for all
+	 * @param maxSize
+	 *            maximum number of cached documents
+	 * @param timeToLive
+	 *            milliseconds after which an entry expires
+	 */
+	EntityCache(String[] models, int maxSize, long timeToLive) {
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		boolean all = false;
+		for (String model : models) {
+			if ("*".equals(model)) {
+				all = true;
+			}
+			this.models.add(model.toLowerCase());
+		}
+		this.allModels = all;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > EntityCache.this.maxSize) {
+					evictions++;
+					unindex(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	boolean isEnabled(String modelName) {
+		return allModels || models.contains(modelName.toLowerCase());
+	}
+
+	/**
+	 * @return a copy of the cached document, or <code>null</code>
+	 */
+	synchronized ODocument get(String rid) {
+		Entry entry = entries.get(rid);
+		if (entry == null || expired(entry)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.doc.copy();
+	}
+
+	/**
+	 * @return a copy of the cached document, or <code>null</code>
+	 */
+	synchronized ODocument getByModelId(String modelName, String modelId) {
+		String rid = modelIds.get(modelKey(modelName, modelId));
+		return rid == null ? missed() : get(rid);
+	}
+
+	/**
+	 * @return the version to be passed to {@link #put(String, long, ODocument)}
+	 *         for a document of the model loaded after this call
+	 */
+	synchronized long stamp(String modelName) {
+		Long version = versions.get(modelName.toLowerCase());
+		return version == null ? cleared : Math.max(version, cleared);
+	}
+
+	/**
+	 * Stores a copy of the document, unless its model was invalidated since the
+	 * stamp was taken.
+	 */
+	synchronized void put(String modelName, long stamp, ODocument doc) {
+		if (stamp != stamp(modelName) || !isEnabled(modelName) || !doc.getIdentity().isPersistent()) {
+			return;
+		}
+		Object modelId = doc.field(DocumentModel.MODEL_ID);
+		Entry entry = new Entry(modelName.toLowerCase(), modelId == null ? null : modelId.toString(), doc.copy(),
+				System.currentTimeMillis() + timeToLive);
+		Entry previous = entries.put(doc.getIdentity().toString(), entry);
+		if (previous != null) {
+			unindex(previous);
+		}
+		if (entry.modelId != null) {
+			modelIds.put(modelKey(entry.model, entry.modelId), doc.getIdentity().toString());
+		}
+	}
+
+	/**
+	 * @param modelName
+	 *            the model of the record, <code>null</code> if unknown, which
+	 *            invalidates the version of all models
+	 */
+	synchronized void invalidate(String modelName, String rid) {
+		if (modelName == null) {
+			cleared = ++sequence;
+		} else {
+			bump(modelName.toLowerCase());
+		}
+		Entry entry = entries.remove(rid);
+		if (entry != null) {
+			bump(entry.model);
+			unindex(entry);
+		}
+	}
+
+	synchronized void invalidateModelId(String modelName, String modelId) {
+		bump(modelName.toLowerCase());
+		String rid = modelIds.remove(modelKey(modelName, modelId));
+		if (rid != null) {
+			entries.remove(rid);
+		}
+	}
+
+	synchronized void invalidateModel(String modelName) {
+		String model = modelName.toLowerCase();
+		bump(model);
+		for (Iterator<Entry> itr = entries.values().iterator(); itr.hasNext();) {
+			Entry entry = itr.next();
+			if (entry.model.equals(model)) {
+				unindex(entry);
+				itr.remove();
+			}
+		}
+	}
+
+	synchronized void clear() {
+		cleared = ++sequence;
+		entries.clear();
+		modelIds.clear();
+	}
+
+	synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(hits, misses, evictions, entries.size());
+	}
+
+	private boolean expired(Entry entry) {
+		if (entry.expires > System.currentTimeMillis()) {
+			return false;
+		}
+		entries.remove(entry.doc.getIdentity().toString());
+		unindex(entry);
+		evictions++;
+		return true;
+	}
+
+	private void bump(String model) {
+		versions.put(model, ++sequence);
+	}
+
+	private ODocument missed() {
+		misses++;
+		return null;
+	}
+
+	private void unindex(Entry entry) {
+		if (entry.modelId != null) {
+			modelIds.remove(modelKey(entry.model, entry.modelId));
+		}
+	}
+
+	private String modelKey(String modelName, String modelId) {
+		return modelName.toLowerCase() + ":" + modelId;
+	}
+
+	private static final class Entry {
+		final String model;
+		final String modelId;
+		final ODocument doc;
+		final long expires;
+
+		Entry(String model, String modelId, ODocument doc, long expires) {
+			this.model = model;
+			this.modelId = modelId;
+			this.doc = doc;
+			this.expires = expires;
+		}
+	}
+
+}
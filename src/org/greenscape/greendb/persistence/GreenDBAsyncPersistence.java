@@ -0,0 +1,238 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.greenscape.greendb.persistence.api.AsyncPersistenceService;
+import org.greenscape.greendb.persistence.api.GreenDBPersistenceService;
+import org.greenscape.persistence.DocumentModel;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Runs {@link GreenDBPersistenceService} calls on a bounded executor. The
+ * persistence service binds a database handle to the worker thread for every
+ * call, so nothing has to be set up here.
+ * <p>
+ * The component shares its configuration with {@link GreenDBPersistence}.
+ * Without <code>pool.enabled</code> all calls go through a single database
+ * handle, so they are run one at a time on a single worker.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@Component(configurationPid = "org.greenscape.greendb.persistence.GreenDBPersistence", property = { "dbName="
+		+ GreenDBPersistence.PROVIDER_NAME })
+public class GreenDBAsyncPersistence implements AsyncPersistenceService {
+
+	static final String ASYNC_THREADS = "async.threads";
+	static final String ASYNC_QUEUE_SIZE = "async.queueSize";
+	static final String ASYNC_VIRTUAL_THREADS = "async.virtualThreads";
+
+	private GreenDBPersistenceService persistence;
+	private ExecutorService executor;
+
+	@Activate
+	void activate(Map<String, Object> config) {
+		Configuration configuration = new Configuration(config);
+		boolean pooled = configuration.getBoolean(GreenDBPersistence.POOL_ENABLED, false);
+		if (pooled && configuration.getBoolean(ASYNC_VIRTUAL_THREADS, false)) {
+			executor = newVirtualThreadExecutor();
+		}
+		if (executor == null) {
+			int threads = pooled ? configuration.getInt(ASYNC_THREADS, Runtime.getRuntime().availableProcessors() * 2)
+					: 1;
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(
+					configuration.getInt(ASYNC_QUEUE_SIZE, 10000)), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "greendb-async-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	@Deactivate
+	void deactivate() {
+		executor.shutdown();
+	}
+
+	@Reference(target = "(dbName=" + GreenDBPersistence.PROVIDER_NAME + ")")
+	void setPersistence(GreenDBPersistenceService persistence) {
+		this.persistence = persistence;
+	}
+
+	void unsetPersistence(GreenDBPersistenceService persistence) {
+		this.persistence = null;
+	}
+
+	@Override
+	public <T> CompletableFuture<T> save(T object) {
+		return submit(() -> {
+			persistence.save(object);
+			return object;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<T> save(String modelName, T object) {
+		return submit(() -> {
+			persistence.save(modelName, object);
+			return object;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<Void> save(Collection<T> objects) {
+		// copied, the caller may reuse the collection once this returns
+		List<T> models = new ArrayList<>(objects);
+		return submit(() -> {
+			persistence.save(models);
+			return null;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<T> update(T object) {
+		return submit(() -> {
+			persistence.update(object);
+			return object;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<T> update(String modelName, T object) {
+		return submit(() -> {
+			persistence.update(modelName, object);
+			return object;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<T> saveOrUpdate(T object) {
+		return submit(() -> {
+			persistence.saveOrUpdate(object);
+			return object;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<Void> saveOrUpdate(Collection<T> objects) {
+		List<T> models = new ArrayList<>(objects);
+		return submit(() -> {
+			persistence.saveOrUpdate(models);
+			return null;
+		});
+	}
+
+	@Override
+	public <T> CompletableFuture<Void> remove(T object) {
+		return submit(() -> {
+			persistence.remove(object);
+			return null;
+		});
+	}
+
+	@Override
+	public <T extends DocumentModel> CompletableFuture<List<T>> find(String modelName) {
+		return submit(() -> persistence.<T> find(modelName));
+	}
+
+	@Override
+	public <T extends DocumentModel> CompletableFuture<List<T>> find(Class<T> clazz) {
+		return submit(() -> persistence.find(clazz));
+	}
+
+	@Override
+	public <T> CompletableFuture<T> find(String modelName, Object id) {
+		return submit(() -> persistence.<T> find(modelName, id));
+	}
+
+	@Override
+	public <T> CompletableFuture<T> findByModelId(String modelName, String modelId) {
+		return submit(() -> persistence.<T> findByModelId(modelName, modelId));
+	}
+
+	@Override
+	public <T> CompletableFuture<T> findById(Class<T> clazz, String modelId) {
+		return submit(() -> persistence.findById(clazz, modelId));
+	}
+
+	@Override
+	public <T> CompletableFuture<List<T>> findByProperty(String modelName, String propertyName, Object value) {
+		return submit(() -> persistence.<T> findByProperty(modelName, propertyName, value));
+	}
+
+	@Override
+	public <T> CompletableFuture<List<T>> findByProperty(Class<T> clazz, String propertyName, Object value) {
+		return submit(() -> persistence.findByProperty(clazz, propertyName, value));
+	}
+
+	@Override
+	public <T extends DocumentModel> CompletableFuture<List<T>> findByProperties(String modelName,
+			Map<String, Object> properties) {
+		return submit(() -> persistence.<T> findByProperties(modelName, properties));
+	}
+
+	@Override
+	public <T> CompletableFuture<List<T>> findByProperties(Class<T> clazz, Map<String, Object> properties) {
+		return submit(() -> persistence.findByProperties(clazz, properties));
+	}
+
+	@Override
+	public <T extends DocumentModel> CompletableFuture<List<T>> executeQuery(String modelName, String query,
+			Map<String, Object> params) {
+		return submit(() -> persistence.<T> executeQuery(modelName, query, params));
+	}
+
+	@Override
+	public <T> CompletableFuture<List<T>> executeQuery(Class<T> clazz, String query, Map<String, Object> params) {
+		return submit(() -> persistence.executeQuery(clazz, query, params));
+	}
+
+	@Override
+	public CompletableFuture<Object> executeUpdate(String query) {
+		return submit(() -> persistence.executeUpdate(query));
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> call) {
+		try {
+			return CompletableFuture.supplyAsync(call, executor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	/**
+	 * @return a virtual thread per task executor on runtimes that have one,
+	 *         otherwise <code>null</code>
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+}
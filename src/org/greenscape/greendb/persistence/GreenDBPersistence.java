@@ -1,16 +1,58 @@
 package org.greenscape.greendb.persistence;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.greenscape.core.ModelResource;
-import org.greenscape.core.Resource;
 import org.greenscape.core.ResourceRegistry;
-import org.greenscape.core.ResourceType;
 import org.greenscape.greendb.Connection;
+import org.greenscape.greendb.persistence.api.BatchException;
+import org.greenscape.greendb.persistence.api.BatchResult;
+import org.greenscape.greendb.persistence.api.CacheStatistics;
+import org.greenscape.greendb.persistence.api.ChangeListener;
+import org.greenscape.greendb.persistence.api.ConcurrentUpdateException;
+import org.greenscape.greendb.persistence.api.Criteria;
+import org.greenscape.greendb.persistence.api.GreenDBPersistenceService;
+import org.greenscape.greendb.persistence.api.OverflowPolicy;
+import org.greenscape.greendb.persistence.api.Page;
+import org.greenscape.greendb.persistence.api.PersistenceMetrics;
+import org.greenscape.greendb.persistence.api.PersistenceMetrics.Operation;
+import org.greenscape.greendb.persistence.api.SlowQueryLog;
+import org.greenscape.greendb.persistence.api.Subscription;
 import org.greenscape.persistence.DocumentModel;
 import org.greenscape.persistence.DocumentModelBase;
 import org.greenscape.persistence.PersistedModelBase;
@@ -19,16 +61,17 @@ import org.greenscape.persistence.PersistenceService;
 import org.greenscape.persistence.PersistenceType;
 import org.greenscape.persistence.Query;
 import org.greenscape.persistence.TypedQuery;
-import org.greenscape.persistence.annotations.Model;
 import org.greenscape.persistence.criteria.CriteriaBuilder;
 import org.greenscape.persistence.criteria.CriteriaDelete;
 import org.greenscape.persistence.criteria.CriteriaQuery;
 import org.greenscape.persistence.criteria.CriteriaUpdate;
 import org.greenscape.persistence.util.PersistenceFactoryUtil;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
@@ -36,28 +79,108 @@ import org.osgi.service.log.LogService;
 
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.iterator.ORecordIteratorClass;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
 
 /**
  *
  * @author Sheikh Sajid
  *
  */
-@Component(property = { "dbName=" + GreenDBPersistence.PROVIDER_NAME })
-public class GreenDBPersistence implements PersistenceService {
+@Component(service = { PersistenceService.class, GreenDBPersistenceService.class }, property = { "dbName="
+		+ GreenDBPersistence.PROVIDER_NAME })
+public class GreenDBPersistence implements GreenDBPersistenceService {
 
 	static final String PROVIDER_NAME = "GreenDB";
+	static final String POOL_ENABLED = "pool.enabled";
+	static final String POOL_MIN_SIZE = "pool.minSize";
+	static final String POOL_MAX_SIZE = "pool.maxSize";
+	static final String POOL_ACQUIRE_TIMEOUT = "pool.acquireTimeout";
+	static final String BATCH_SIZE = "batch.size";
+	static final String BATCH_MASSIVE_INSERT = "batch.massiveInsert";
+	static final String STREAM_BUFFER_SIZE = "stream.bufferSize";
+	static final String STREAM_THREADS = "stream.threads";
+	static final String STREAM_TIMEOUT = "stream.timeout";
+	static final String INDEX_PREFIX = "index.";
+	static final String INDEX_ADVISOR_ENABLED = "indexAdvisor.enabled";
+	static final String INDEX_ADVISOR_THRESHOLD = "indexAdvisor.threshold";
+	static final String INDEX_ADVISOR_AUTO_CREATE = "indexAdvisor.autoCreate";
+	static final String ENTITY_CACHE_MODELS = "entityCache.models";
+	static final String ENTITY_CACHE_MAX_SIZE = "entityCache.maxSize";
+	static final String ENTITY_CACHE_TTL = "entityCache.ttl";
+	static final String UPDATE_PARTIAL = "update.partial";
+	static final String METRICS_ENABLED = "metrics.enabled";
+	static final String LOG_QUERIES = "log.queries";
+	static final String SLOW_QUERY_THRESHOLD = "slowQuery.threshold";
+	static final String SLOW_QUERY_SIZE = "slowQuery.size";
+	static final String SLOW_QUERY_REDACT = "slowQuery.redact";
+	static final String SLOW_QUERY_EXPLAIN = "slowQuery.explain";
+	static final String SCHEMA_MODE = "schema.mode";
+	static final String UNIT_OF_WORK_ENABLED = "unitOfWork.enabled";
+	static final String CHANGE_FEED_BUFFER_SIZE = "changeFeed.bufferSize";
+	static final String CHANGE_FEED_OVERFLOW = "changeFeed.overflow";
+	static final String RESULT_CACHE_ENABLED = "resultCache.enabled";
+	static final String RESULT_CACHE_MAX_WEIGHT = "resultCache.maxWeight";
+	static final String RESULT_CACHE_TTL = "resultCache.ttl";
+	static final String CLUSTERS_PREFIX = "clusters.";
+	static final String SCAN_PARALLELISM = "scan.parallelism";
 	private static final PersistenceProvider provider;
-	private static final String GREENDB_ID_FIELD = "id";
-
-	private Connection connection;
-	private ODatabaseDocument docbase;
-	private ResourceRegistry resourceRegistry;
+	private static final String GREENDB_ID_FIELD = DocumentMapper.ID_FIELD;
+	private static final Pattern UPDATE_TARGET = Pattern.compile(
+			"\\s*(?:update|insert\\s+into|delete\\s+from)\\s+([A-Za-z_][A-Za-z0-9_]*)", Pattern.CASE_INSENSITIVE);
+	/** Properties holding the record id, which are never written by a partial update. */
+	private static final Collection<String> RECORD_ID_PROPERTIES = DocumentMapper.RECORD_ID_PROPERTIES;
+
+	private volatile Connection connection;
+	private volatile ODatabaseDocument docbase;
+	private volatile DatabasePool pool;
+	private final ThreadLocal<DatabaseBinding> binding = new ThreadLocal<>();
+	private volatile ResourceRegistry resourceRegistry;
+	private final ModelClassIndex modelClasses = new ModelClassIndex();
+	private final Function<ODocument, DocumentModel> embedded = this::toEmbeddedModel;
+	private final Function<ODocument, DocumentModel> lazyEmbedded = this::toLazyEmbeddedModel;
+	private final BiFunction<ODocument, String, Object> fieldLoader = this::loadField;
+
+	private boolean pooled;
+	private int poolMinSize;
+	private int poolMaxSize;
+	private long poolAcquireTimeout;
+	private int batchSize;
+	private boolean batchMassiveInsert;
+	private int streamBufferSize;
+	private long streamTimeout;
+	private ExecutorService streamExecutor;
+	private Map<String, String[]> declaredIndexes;
+	private IndexAdvisor indexAdvisor;
+	private boolean indexAutoCreate;
+	private EntityCache entityCache;
+	private ResultCache resultCache;
+	private ClusterLayout clusterLayout;
+	private ForkJoinPool scanPool;
+	private DirtyTracker dirtyTracker;
+	private Metrics metrics = new Metrics(false);
+	private ServiceRegistration<PersistenceMetrics> metricsRegistration;
+	private boolean logQueries;
+	private SlowQueryRecorder slowQueries;
+	private ServiceRegistration<SlowQueryLog> slowQueryRegistration;
+	private ModelSchema modelSchema;
+	private boolean unitOfWorkEnabled;
+	private ExecutorService changeExecutor;
+	private ExecutorService explainExecutor;
+	private ChangeFeed changeFeed;
+	private int changeBufferSize;
+	private OverflowPolicy changeOverflow;
 
 	private BundleContext context;
 	private LogService logService;
@@ -79,16 +202,168 @@ public class GreenDBPersistence implements PersistenceService {
 	@Activate
 	void activate(ComponentContext ctx, Map<String, Object> config) {
 		context = ctx.getBundleContext();
+		modelClasses.open(context);
+		Configuration configuration = new Configuration(config);
+		pooled = configuration.getBoolean(POOL_ENABLED, false);
+		poolMinSize = configuration.getInt(POOL_MIN_SIZE, 1);
+		poolMaxSize = configuration.getInt(POOL_MAX_SIZE, Runtime.getRuntime().availableProcessors() * 2);
+		poolAcquireTimeout = configuration.getLong(POOL_ACQUIRE_TIMEOUT, 30000);
+		batchSize = configuration.getInt(BATCH_SIZE, 1000);
+		batchMassiveInsert = configuration.getBoolean(BATCH_MASSIVE_INSERT, false);
+		streamBufferSize = configuration.getInt(STREAM_BUFFER_SIZE, 256);
+		streamTimeout = configuration.getLong(STREAM_TIMEOUT, 60000);
+		declaredIndexes = new HashMap<>();
+		for (Map.Entry<String, String[]> entry : configuration.getStringArrays(INDEX_PREFIX).entrySet()) {
+			declaredIndexes.put(entry.getKey().toLowerCase(), entry.getValue());
+		}
+		if (configuration.getBoolean(INDEX_ADVISOR_ENABLED, false)) {
+			indexAdvisor = new IndexAdvisor(configuration.getLong(INDEX_ADVISOR_THRESHOLD, 1000));
+			indexAutoCreate = configuration.getBoolean(INDEX_ADVISOR_AUTO_CREATE, false);
+		}
+		String[] cachedModels = configuration.getStringArray(ENTITY_CACHE_MODELS);
+		if (cachedModels.length > 0) {
+			entityCache = new EntityCache(cachedModels, configuration.getInt(ENTITY_CACHE_MAX_SIZE, 10000),
+					configuration.getLong(ENTITY_CACHE_TTL, 300000));
+		}
+		clusterLayout = new ClusterLayout(configuration.getStringArrays(CLUSTERS_PREFIX));
+		if (configuration.getBoolean(RESULT_CACHE_ENABLED, false)) {
+			resultCache = new ResultCache(configuration.getLong(RESULT_CACHE_MAX_WEIGHT, 100000), configuration
+					.getLong(RESULT_CACHE_TTL, 60000));
+		}
+		if (configuration.getBoolean(UPDATE_PARTIAL, false)) {
+			dirtyTracker = new DirtyTracker();
+		}
+		unitOfWorkEnabled = configuration.getBoolean(UNIT_OF_WORK_ENABLED, false);
+		logQueries = configuration.getBoolean(LOG_QUERIES, false);
+		if (configuration.getBoolean(METRICS_ENABLED, false)) {
+			metrics = new Metrics(true);
+			Hashtable<String, Object> properties = new Hashtable<>();
+			properties.put("dbName", PROVIDER_NAME);
+			metricsRegistration = context.registerService(PersistenceMetrics.class, metrics, properties);
+		}
+		long slowQueryThreshold = configuration.getLong(SLOW_QUERY_THRESHOLD, -1);
+		int slowQuerySize = configuration.getInt(SLOW_QUERY_SIZE, 100);
+		if (slowQueryThreshold >= 0 && slowQuerySize < 1) {
+			slowQueryThreshold = -1;
+			if (logService != null) {
+				logService.log(LogService.LOG_WARNING, SLOW_QUERY_SIZE + " is " + slowQuerySize
+						+ ", the slow query log is disabled");
+			}
+		}
+		if (slowQueryThreshold >= 0) {
+			boolean explain = configuration.getBoolean(SLOW_QUERY_EXPLAIN, false);
+			slowQueries = new SlowQueryRecorder(slowQueryThreshold, slowQuerySize, configuration.getBoolean(
+					SLOW_QUERY_REDACT, false), explain);
+			if (explain) {
+				// one thread with a handle of its own, plans beyond the queue are skipped
+				explainExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(64), new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "greendb-explain");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+			}
+			Hashtable<String, Object> properties = new Hashtable<>();
+			properties.put("dbName", PROVIDER_NAME);
+			slowQueryRegistration = context.registerService(SlowQueryLog.class, slowQueries, properties);
+		}
+		modelSchema = new ModelSchema(ModelSchema.parseMode(configuration.getString(SCHEMA_MODE, "schemaless")));
+		changeBufferSize = configuration.getInt(CHANGE_FEED_BUFFER_SIZE, 1024);
+		changeOverflow = OverflowPolicy.valueOf(configuration.getString(CHANGE_FEED_OVERFLOW,
+				OverflowPolicy.DROP_OLDEST.name()).trim().toUpperCase());
+		changeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "greendb-changes-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		changeFeed = new ChangeFeed(changeExecutor, this::toChangedModel, (message, e) -> {
+			LogService log = logService;
+			if (log != null) {
+				log.log(LogService.LOG_ERROR, message, e);
+			}
+		});
+		// bounded, queries beyond the limit wait for a thread
+		int streamThreads = configuration.getInt(STREAM_THREADS, Runtime.getRuntime().availableProcessors() * 2);
+		ThreadPoolExecutor streamPool = new ThreadPoolExecutor(streamThreads, streamThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "greendb-stream-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		streamPool.allowCoreThreadTimeOut(true);
+		streamExecutor = streamPool;
+		scanPool = new ForkJoinPool(configuration.getInt(SCAN_PARALLELISM, Runtime.getRuntime()
+				.availableProcessors()), new ForkJoinWorkerThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("greendb-scan-" + count.incrementAndGet());
+				return thread;
+			}
+		}, null, false);
+		if (pooled && docbase != null) {
+			docbase.close();
+			docbase = null;
+		}
+	}
+
+	@Deactivate
+	void deactivate() {
+		if (metricsRegistration != null) {
+			metricsRegistration.unregister();
+			metricsRegistration = null;
+		}
+		if (slowQueryRegistration != null) {
+			slowQueryRegistration.unregister();
+			slowQueryRegistration = null;
+		}
+		if (explainExecutor != null) {
+			explainExecutor.shutdownNow();
+			explainExecutor = null;
+		}
+		streamExecutor.shutdownNow();
+		scanPool.shutdownNow();
+		// lets the listeners see onClose
+		changeFeed.close();
+		changeExecutor.shutdown();
+		modelClasses.close();
+		closePool();
 	}
 
 	@Reference(policy = ReferencePolicy.DYNAMIC)
-	public void setConnection(Connection connection) {
+	public synchronized void setConnection(Connection connection) {
+		closePool();
+		if (docbase != null) {
+			docbase.close();
+			docbase = null;
+		}
 		this.connection = connection;
-		this.docbase = this.connection.getDatabaseDocument();
+		if (!pooled) {
+			this.docbase = this.connection.getDatabaseDocument();
+		}
 	}
 
-	public void unsetConnection(Connection connection) {
+	public synchronized void unsetConnection(Connection connection) {
+		if (this.connection != connection) {
+			return;
+		}
 		this.connection = null;
+		closePool();
 		if (docbase != null) {
 			this.docbase.close();
 		}
@@ -97,32 +372,191 @@ public class GreenDBPersistence implements PersistenceService {
 
 	@Override
 	public <T> void save(String modelName, T object) {
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		persistNonThreaded(modelName, (DocumentModel) object, true);
+		assignModelId(object);
+		UnitOfWork unitOfWork = unitOfWork();
+		if (unitOfWork != null && object != null) {
+			unitOfWork.save(modelName, (DocumentModel) object);
+			return;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			persistNonThreaded(db, modelName, (DocumentModel) object, true);
+		} finally {
+			release(db);
+		}
 	}
 
 	@Override
 	public <T> void save(T object) {
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		persistNonThreaded((DocumentModel) object, true);
+		assignModelId(object);
+		UnitOfWork unitOfWork = unitOfWork();
+		if (unitOfWork != null && object != null) {
+			unitOfWork.save(modelName(object), (DocumentModel) object);
+			return;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			persistNonThreaded(db, (DocumentModel) object, true);
+		} finally {
+			release(db);
+		}
 	}
 
 	@Override
 	public <T> void update(String modelName, T object) {
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		persistNonThreaded(modelName, (DocumentModel) object, false);
+		UnitOfWork unitOfWork = unitOfWork();
+		if (unitOfWork != null && object != null) {
+			unitOfWork.update(modelName, (DocumentModel) object);
+			return;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			persistNonThreaded(db, modelName, (DocumentModel) object, false);
+		} finally {
+			release(db);
+		}
 	}
 
 	@Override
 	public <T> void update(T object) {
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		persistNonThreaded((DocumentModel) object, false);
+		UnitOfWork unitOfWork = unitOfWork();
+		if (unitOfWork != null && object != null) {
+			unitOfWork.update(modelName(object), (DocumentModel) object);
+			return;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			persistNonThreaded(db, (DocumentModel) object, false);
+		} finally {
+			release(db);
+		}
 	}
 
+	/**
+	 * Inserts the model, or updates the stored model with the same
+	 * {@link DocumentModel#MODEL_ID}, with a single upsert command. A model
+	 * without a model id gets a new one and is inserted.
+	 */
 	@Override
 	public <T> void saveOrUpdate(T object) {
-		// TODO Auto-generated method stub
+		if (object == null) {
+			return;
+		}
+		String modelName = modelName(object);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			ensureModel(db, modelName);
+			DocumentModel model = (DocumentModel) object;
+			upserted(db, modelName, model, upsert(db, modelName, model));
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.UPSERT, start, 1);
+		}
+	}
+
+	@Override
+	public <T> void saveOrUpdate(Collection<T> objects) {
+		saveOrUpdate(objects.toArray());
+	}
+
+	/**
+	 * Upserts the models in transactions of <code>batch.size</code> models.
+	 *
+	 * @throws BatchException
+	 *             after all batches were attempted, if any of them failed
+	 */
+	@Override
+	public <T> void saveOrUpdate(T[] objects) {
+		if (objects == null || objects.length == 0) {
+			return;
+		}
+		BatchResult result = saveOrUpdateBatch(objects, batchSize);
+		if (result.hasFailures()) {
+			throw new BatchException("upserted", result);
+		}
+	}
+
+	@Override
+	public <T> BatchResult saveOrUpdateBatch(Collection<T> objects, int batchSize) {
+		return saveOrUpdateBatch(objects.toArray(), batchSize);
+	}
+
+	private BatchResult saveOrUpdateBatch(Object[] objects, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		}
+		BatchResult result = new BatchResult();
+		if (objects == null || objects.length == 0) {
+			return result;
+		}
+		String[] modelNames = new String[objects.length];
+		for (int i = 0; i < objects.length; i++) {
+			modelNames[i] = objects[i] == null ? null : modelName(objects[i]);
+		}
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			for (String modelName : new HashSet<>(Arrays.asList(modelNames))) {
+				if (modelName != null) {
+					ensureModel(db, modelName);
+				}
+			}
+			if (db.getTransaction().isActive()) {
+				// the caller's transaction decides what is committed
+				for (int i = 0; i < objects.length; i++) {
+					if (objects[i] != null) {
+						DocumentModel model = (DocumentModel) objects[i];
+						upserted(db, modelNames[i], model, upsert(db, modelNames[i], model));
+					}
+				}
+				result.addSuccess(objects.length);
+				return result;
+			}
+			for (int offset = 0; offset < objects.length; offset += batchSize) {
+				int count = Math.min(batchSize, objects.length - offset);
+				saveOrUpdateBatch(db, objects, modelNames, offset, count, result);
+			}
+		} finally {
+			release(db);
+			metrics.record(modelClass(objects), Operation.UPSERT, start, result.getSucceeded());
+		}
+		return result;
+	}
 
+	private void saveOrUpdateBatch(ODatabaseDocument db, Object[] objects, String[] modelNames, int offset,
+			int count, BatchResult result) {
+		ODocument[] docs = new ODocument[count];
+		try {
+			db.begin();
+			for (int i = 0; i < count; i++) {
+				DocumentModel model = (DocumentModel) objects[offset + i];
+				if (model != null) {
+					docs[i] = upsert(db, modelNames[offset + i], model);
+				}
+			}
+			db.commit();
+		} catch (RuntimeException e) {
+			try {
+				db.rollback();
+			} catch (RuntimeException rollbackException) {
+				e.addSuppressed(rollbackException);
+			}
+			result.addFailure(offset, count, e);
+			if (logService != null) {
+				logService.log(LogService.LOG_ERROR, "Failed to upsert batch of " + count + " models at offset "
+						+ offset, e);
+			}
+			return;
+		}
+		// record ids of inserted models are final only after the commit
+		for (int i = 0; i < count; i++) {
+			DocumentModel model = (DocumentModel) objects[offset + i];
+			if (model != null) {
+				upserted(db, modelNames[offset + i], model, docs[i]);
+			}
+		}
+		result.addSuccess(count);
 	}
 
 	@Override
@@ -130,21 +564,125 @@ public class GreenDBPersistence implements PersistenceService {
 		save(objects.toArray());
 	}
 
+	/**
+	 * Saves the models in transactions of <code>batch.size</code> models.
+	 *
+	 * @throws BatchException
+	 *             after all batches were attempted, if any of them failed
+	 */
 	@Override
 	public <T> void save(T[] objects) {
 		if (objects == null || objects.length == 0) {
 			return;
 		}
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		for (Object model : objects) {
-			persistNonThreaded((DocumentModel) model, true);
+		BatchResult result = saveBatch(objects, batchSize, batchMassiveInsert);
+		if (result.hasFailures()) {
+			throw new BatchException("saved", result);
+		}
+	}
+
+	@Override
+	public <T> BatchResult saveBatch(Collection<T> objects, int batchSize, boolean massiveInsert) {
+		return saveBatch(objects.toArray(), batchSize, massiveInsert);
+	}
+
+	private BatchResult saveBatch(Object[] objects, int batchSize, boolean massiveInsert) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		}
+		BatchResult result = new BatchResult();
+		if (objects == null || objects.length == 0) {
+			return result;
+		}
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (db.getTransaction().isActive()) {
+				// the caller's transaction decides what is committed
+				for (Object model : objects) {
+					assignModelId(model);
+					persistNonThreaded(db, (DocumentModel) model, true);
+				}
+				result.addSuccess(objects.length);
+				return result;
+			}
+			long start = start();
+			if (massiveInsert) {
+				db.declareIntent(new OIntentMassiveInsert());
+			}
+			try {
+				for (int offset = 0; offset < objects.length; offset += batchSize) {
+					int count = Math.min(batchSize, objects.length - offset);
+					saveBatch(db, objects, offset, count, result);
+				}
+			} finally {
+				if (massiveInsert) {
+					db.declareIntent(null);
+				}
+				invalidateResults(db, objects);
+				metrics.record(modelClass(objects), Operation.SAVE, start, result.getSucceeded());
+			}
+		} finally {
+			release(db);
+		}
+		return result;
+	}
+
+	private void saveBatch(ODatabaseDocument db, Object[] objects, int offset, int count, BatchResult result) {
+		ODocument[] docs = new ODocument[count];
+		try {
+			db.begin();
+			for (int i = 0; i < count; i++) {
+				DocumentModel model = (DocumentModel) objects[offset + i];
+				if (model != null) {
+					String modelName = modelName(model);
+					assignModelId(model);
+					docs[i] = toDocument(db, modelName, model, true);
+					save(db, modelName, docs[i], true);
+				}
+			}
+			db.commit();
+		} catch (RuntimeException e) {
+			try {
+				db.rollback();
+			} catch (RuntimeException rollbackException) {
+				e.addSuppressed(rollbackException);
+			}
+			result.addFailure(offset, count, e);
+			if (logService != null) {
+				logService.log(LogService.LOG_ERROR, "Failed to save batch of " + count + " models at offset "
+						+ offset, e);
+			}
+			return;
+		}
+		// record ids are final only after the commit
+		for (int i = 0; i < count; i++) {
+			if (docs[i] != null) {
+				((DocumentModel) objects[offset + i]).setProperty(GREENDB_ID_FIELD, docs[i].getIdentity().toString());
+			}
 		}
+		result.addSuccess(count);
 	}
 
 	@Override
 	public <T> void remove(T object) {
-		ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
-		removeNonThreaded((DocumentModel) object);
+		UnitOfWork unitOfWork = unitOfWork();
+		if (unitOfWork != null) {
+			DocumentModel model = (DocumentModel) object;
+			Object rid = model.getProperty(GREENDB_ID_FIELD);
+			Class<?> clazz = LazyModel.modelClass(model);
+			// models read without a model class have no name, which is only used for the metrics
+			unitOfWork.remove(DocumentMapper.hasModelName(clazz) ? DocumentMapper.getModelName(clazz)
+					: PersistenceMetrics.ANY_MODEL, model, rid == null ? null : rid.toString());
+			return;
+		}
+		long start = start();
+		ODatabaseDocument db = acquire();
+		try {
+			removeNonThreaded(db, (DocumentModel) object);
+		} finally {
+			release(db);
+			metrics.record(LazyModel.modelClass(object), Operation.DELETE, start, 1);
+		}
 	}
 
 	@Override
@@ -152,200 +690,382 @@ public class GreenDBPersistence implements PersistenceService {
 		remove(objects.toArray());
 	}
 
+	/**
+	 * Removes the models in transactions of <code>batch.size</code> models.
+	 *
+	 * @throws BatchException
+	 *             after all batches were attempted, if any of them failed
+	 */
 	@Override
 	public <T> void remove(T[] objects) {
 		if (objects == null || objects.length == 0) {
-			ODatabaseRecordThreadLocal.INSTANCE.set(docbase);
+			return;
 		}
-		for (Object model : objects) {
-			removeNonThreaded((DocumentModel) model);
+		BatchResult result = removeBatch(objects, batchSize);
+		if (result.hasFailures()) {
+			throw new BatchException("removed", result);
+		}
+	}
+
+	@Override
+	public <T> BatchResult removeBatch(Collection<T> objects, int batchSize) {
+		return removeBatch(objects.toArray(), batchSize);
+	}
+
+	private BatchResult removeBatch(Object[] objects, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
 		}
+		BatchResult result = new BatchResult();
+		if (objects == null || objects.length == 0) {
+			return result;
+		}
+		ORecordId[] ids = new ORecordId[objects.length];
+		for (int i = 0; i < objects.length; i++) {
+			Object id = objects[i] == null ? null : ((DocumentModel) objects[i]).getProperty(GREENDB_ID_FIELD);
+			ids[i] = id == null ? null : new ORecordId(id.toString());
+		}
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (db.getTransaction().isActive()) {
+				// the caller's transaction decides what is committed
+				for (ORecordId id : ids) {
+					if (id != null) {
+						db.delete(id);
+						evict(db, cache -> cache.invalidate(className(db, id), id.toString()));
+					}
+				}
+				invalidateResults(db, ids);
+				result.addSuccess(ids.length);
+				return result;
+			}
+			for (int offset = 0; offset < ids.length; offset += batchSize) {
+				int count = Math.min(batchSize, ids.length - offset);
+				removeBatch(db, ids, offset, count, result);
+			}
+			invalidateResults(db, ids);
+		} finally {
+			release(db);
+			metrics.record(modelClass(objects), Operation.DELETE, start, result.getSucceeded());
+		}
+		return result;
+	}
+
+	private void removeBatch(ODatabaseDocument db, ORecordId[] ids, int offset, int count, BatchResult result) {
+		try {
+			db.begin();
+			for (int i = offset; i < offset + count; i++) {
+				if (ids[i] != null) {
+					db.delete(ids[i]);
+				}
+			}
+			db.commit();
+		} catch (RuntimeException e) {
+			try {
+				db.rollback();
+			} catch (RuntimeException rollbackException) {
+				e.addSuppressed(rollbackException);
+			}
+			result.addFailure(offset, count, e);
+			if (logService != null) {
+				logService.log(LogService.LOG_ERROR, "Failed to remove batch of " + count + " models at offset "
+						+ offset, e);
+			}
+			return;
+		}
+		EntityCache cache = entityCache;
+		if (cache != null) {
+			for (int i = offset; i < offset + count; i++) {
+				if (ids[i] != null) {
+					cache.invalidate(className(db, ids[i]), ids[i].toString());
+				}
+			}
+		}
+		result.addSuccess(count);
 	}
 
 	@Override
 	public Object executeQuery(String query) {
-		logService.log(LogService.LOG_INFO, "Executing query: " + query);
-		List<ODocument> list = docbase.query(new OSQLSynchQuery<>(query));
+		logQuery(query);
 		List<DocumentModelBase> modelList = new ArrayList<>();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
 		try {
+			List<ODocument> list = db.query(new OSQLSynchQuery<>(query));
 			if (list != null && !list.isEmpty()) {
 				for (ODocument doc : list) {
 					if (doc.getClassName() == null) {
-						DocumentModelBase model = new DocumentModelBase();
-						copy(model, doc);
+						DocumentModelBase model = toModel(DocumentModelBase.class, doc);
 						modelList.add(model);
 					} else {
-						PersistedModelBase model = new PersistedModelBase();
-						copy(model, doc);
+						PersistedModelBase model = toModel(PersistedModelBase.class, doc);
 						modelList.add(model);
 					}
 				}
 			}
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-			throw new RuntimeException(e);
+			return modelList;
+		} finally {
+			release(db);
+			metrics.record(PersistenceMetrics.ANY_MODEL, Operation.QUERY, start, modelList.size());
 		}
-		return modelList;
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> Collection<T> executeQuery(Class<T> clazz, String query) {
+		return executeQuery(clazz, query, -1);
+	}
+
+	/**
+	 * @param maxResult
+	 *            maximum number of models returned, <code>-1</code> for all
+	 */
+	@Override
+	public <T> Collection<T> executeQuery(Class<T> clazz, String query, int maxResult) {
 		List<T> modelList = new ArrayList<>();
-		if (docbase.existsCluster(clazz.getAnnotation(Model.class).name().toLowerCase())) {
-			logService.log(LogService.LOG_INFO, "Executing query: " + query);
-			List<ODocument> list = docbase.query(new OSQLSynchQuery<>(query));
-			if (list != null && list.size() > 0) {
-				for (ODocument doc : list) {
-					DocumentModel model = null;
-					try {
-						model = (DocumentModel) clazz.newInstance();
-						copy(model, doc);
-					} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-						throw new RuntimeException(e);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (db.existsCluster(DocumentMapper.getClassName(clazz))) {
+				logQuery(query);
+				List<ODocument> list = db.query(new OSQLSynchQuery<>(query, maxResult));
+				if (list != null && list.size() > 0) {
+					for (ODocument doc : list) {
+						T model = toModel(clazz, doc);
+						modelList.add(model);
 					}
-					modelList.add((T) model);
 				}
 			}
+			slowQuery(query, null, start, modelList.size());
+		} finally {
+			release(db);
+			metrics.record(clazz, Operation.QUERY, start, modelList.size());
 		}
 		return modelList;
 	}
 
-	@SuppressWarnings("unchecked")
+	@Override
 	public <T extends DocumentModel> List<T> executeQuery(String modelName, String query, Map<String, Object> params) {
 		List<T> modelList = new ArrayList<>();
-		if (docbase.existsCluster(modelName.toLowerCase())) {
-			logService.log(LogService.LOG_INFO, "Executing query: " + query);
-			OSQLSynchQuery<ODocument> oquery = new OSQLSynchQuery<ODocument>(query);
-			List<ODocument> list = docbase.command(oquery).execute(params);
-			if (list != null && list.size() > 0) {
-				try {
-					ModelResource modelResource = (ModelResource) resourceRegistry.getResource(modelName);
-					Class<?> clazz = null;
-					if (modelResource.getModelClass() != null) {
-						clazz = context.getBundle(modelResource.getBundleId()).loadClass(modelResource.getModelClass());
-					}
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (db.existsCluster(modelName.toLowerCase())) {
+				logQuery(query);
+				List<ODocument> list = query(db, modelName, query, params);
+				if (list != null && list.size() > 0) {
+					Class<?> clazz = modelClasses.getModelClass(modelName);
 					T model = null;
 					for (ODocument doc : list) {
-						if (clazz == null) {
-							model = (T) new PersistedModelBase();
-						} else {
-							model = (T) clazz.newInstance();
-						}
-
-						copy(model, doc);
+						model = toModel(clazz, doc);
 
 						modelList.add(model);
 					}
-				} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-					throw new RuntimeException(e);
 				}
 			}
+			slowQuery(query, params, start, modelList.size());
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.QUERY, start, modelList.size());
 		}
 		return modelList;
 	}
 
-	@SuppressWarnings("unchecked")
+	@Override
 	public <T> List<T> executeQuery(Class<T> clazz, String query, Map<String, Object> params) {
 		List<T> modelList = new ArrayList<>();
-		if (docbase.existsCluster(clazz.getAnnotation(Model.class).name().toLowerCase())) {
-			logService.log(LogService.LOG_INFO, "Executing query: " + query);
-			OSQLSynchQuery<ODocument> oquery = new OSQLSynchQuery<ODocument>(query);
-			List<ODocument> list = docbase.command(oquery).execute(params);
-			if (list != null && list.size() > 0) {
-				for (ODocument doc : list) {
-					DocumentModel model = null;
-					try {
-						model = (DocumentModel) clazz.newInstance();
-						copy(model, doc);
-					} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-						throw new RuntimeException(e);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (db.existsCluster(DocumentMapper.getClassName(clazz))) {
+				logQuery(query);
+				List<ODocument> list = query(db, DocumentMapper.getModelName(clazz), query, params);
+				if (list != null && list.size() > 0) {
+					for (ODocument doc : list) {
+						T model = toModel(clazz, doc);
+						modelList.add(model);
 					}
-					modelList.add((T) model);
 				}
 			}
+			slowQuery(query, params, start, modelList.size());
+		} finally {
+			release(db);
+			metrics.record(clazz, Operation.QUERY, start, modelList.size());
 		}
 		return modelList;
 	}
 
+	/**
+	 * Runs an SQL command. Since the command may touch any model, the entity
+	 * cache is cleared. Cached query results are invalidated for the class an
+	 * <code>insert</code>, <code>update</code> or <code>delete</code> command
+	 * targets, for any other command all of them are.
+	 */
 	@Override
-	public <T> Collection<T> executeQuery(Class<T> clazz, String query, int maxResult) {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
 	public Object executeUpdate(String query) {
-		return docbase.command(new OCommandSQL(query)).execute();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			Object result = db.command(new OCommandSQL(query)).execute();
+			evict(db, EntityCache::clear);
+			Matcher target = UPDATE_TARGET.matcher(query);
+			invalidateResults(db, target.lookingAt() ? target.group(1) : null);
+			return result;
+		} finally {
+			release(db);
+			metrics.record(PersistenceMetrics.ANY_MODEL, Operation.QUERY, start, 0);
+		}
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends DocumentModel> List<T> find(String modelName) {
-		ORecordIteratorClass<ODocument> itr = docbase.browseClass(modelName.toLowerCase());
 		List<T> list = new ArrayList<>();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
 		try {
-			ModelResource modelResource = (ModelResource) resourceRegistry.getResource(modelName);
-			Class<?> clazz = null;
-			if (modelResource.getModelClass() != null) {
-				clazz = context.getBundle(modelResource.getBundleId()).loadClass(modelResource.getModelClass());
-			}
+			ORecordIteratorClass<ODocument> itr = db.browseClass(modelName.toLowerCase());
+			Class<?> clazz = modelClasses.getModelClass(modelName);
 			for (ODocument doc : itr) {
-				T model = null;
-				if (clazz == null) {
-					model = (T) new PersistedModelBase();
-				} else {
-					model = (T) clazz.newInstance();
-				}
-				copy(model, doc);
+				T model = toModel(clazz, doc);
 				list.add(model);
 			}
-		} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-			throw new RuntimeException(e);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.FIND, start, list.size());
 		}
 		return list;
 	}
 
 	@Override
 	public <T extends DocumentModel> List<T> find(Class<T> clazz) {
-		ORecordIteratorClass<ODocument> itr = docbase
-				.browseClass(clazz.getAnnotation(Model.class).name().toLowerCase());
 		List<T> list = new ArrayList<>();
-		for (ODocument doc : itr) {
-			T model = null;
-			try {
-				model = clazz.newInstance();
-				copy(model, doc);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			ORecordIteratorClass<ODocument> itr = db.browseClass(DocumentMapper.getClassName(clazz));
+			for (ODocument doc : itr) {
+				T model = toModel(clazz, doc);
 				list.add(model);
-			} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
 			}
+		} finally {
+			release(db);
+			metrics.record(clazz, Operation.FIND, start, list.size());
 		}
 		return list;
 	}
 
+	@Override
+	public <T extends DocumentModel> List<T> findParallel(String modelName) {
+		long start = start();
+		List<T> list = null;
+		try {
+			list = scan(modelName, modelClasses.getModelClass(modelName))
+					.collect(Collectors.toCollection(ArrayList::new));
+			return list;
+		} finally {
+			metrics.record(modelName, Operation.FIND, start, list == null ? 0 : list.size());
+		}
+	}
+
+	@Override
+	public <T extends DocumentModel> List<T> findParallel(Class<T> clazz) {
+		long start = start();
+		List<T> list = null;
+		try {
+			list = scan(getModelName(clazz), clazz).collect(Collectors.toCollection(ArrayList::new));
+			return list;
+		} finally {
+			metrics.record(clazz, Operation.FIND, start, list == null ? 0 : list.size());
+		}
+	}
+
+	@Override
+	public <T extends DocumentModel> Stream<T> streamParallel(String modelName) {
+		return scan(modelName, modelClasses.getModelClass(modelName));
+	}
+
+	@Override
+	public <T extends DocumentModel> Stream<T> streamParallel(Class<T> clazz) {
+		return scan(getModelName(clazz), clazz);
+	}
+
+	@Override
+	public <T extends DocumentModel> Stream<T> stream(String modelName) {
+		return browse(modelName, modelClasses.getModelClass(modelName));
+	}
+
+	@Override
+	public <T extends DocumentModel> Stream<T> stream(Class<T> clazz) {
+		return browse(getModelName(clazz), clazz);
+	}
+
+	@Override
+	public <T extends DocumentModel> Stream<T> streamQuery(String modelName, String query, Map<String, Object> params) {
+		if (!modelExists(modelName)) {
+			return Stream.empty();
+		}
+		Class<?> clazz = modelClasses.getModelClass(modelName);
+		return streamQuery(query, params, doc -> this.<T> toModel(clazz, doc));
+	}
+
+	@Override
+	public <T> Stream<T> streamQuery(Class<T> clazz, String query, Map<String, Object> params) {
+		if (!modelExists(getModelName(clazz))) {
+			return Stream.empty();
+		}
+		return streamQuery(query, params, doc -> this.<T> toModel(clazz, doc));
+	}
+
+	@Override
+	public <T extends DocumentModel> Page<T> findPage(String modelName, String cursor, int pageSize) {
+		return findPage(modelName, modelClasses.getModelClass(modelName), cursor, pageSize);
+	}
+
+	@Override
+	public <T extends DocumentModel> Page<T> findPage(Class<T> clazz, String cursor, int pageSize) {
+		return findPage(getModelName(clazz), clazz, cursor, pageSize);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T find(String modelName, Object id) {
 		if (!(id instanceof ORID)) {
 			throw new RuntimeException("Invalid record id");
 		}
-		DocumentModel model = null;
+		UnitOfWork unitOfWork = unitOfWork();
+		DocumentModel model = unitOfWork == null ? null : unitOfWork.get(id.toString());
+		if (model != null) {
+			return (T) model;
+		}
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
 		try {
-			ODocument doc = docbase.load((ORID) id);
-			Class<?> clazz = PersistedModelBase.class;
-			ModelResource modelResource = (ModelResource) resourceRegistry.getResource(modelName);
-			if (modelResource.getModelClass() != null) {
-				clazz = context.getBundle(modelResource.getBundleId()).loadClass(modelResource.getModelClass());
+			Class<?> clazz = modelClasses.getModelClass(modelName);
+			EntityCache cache = entityCache(modelName);
+			long stamp = cache == null ? 0 : cache.stamp(modelName);
+			ODocument doc = cache == null ? null : cache.get(id.toString());
+			if (doc == null) {
+				doc = db.load((ORID) id);
+				// uncommitted state must not leak into the cache
+				if (cache != null && doc != null && !db.getTransaction().isActive()) {
+					cache.put(modelName, stamp, doc);
+				}
 			}
-			model = (DocumentModel) clazz.newInstance();
-			copy(model, doc);
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-			throw new RuntimeException(e);
+			model = doc == null ? null : toModel(clazz, doc);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.FIND, start, model == null ? 0 : 1);
 		}
 		return (T) model;
 	}
 
 	@Override
 	public <T> T findByModelId(String modelName, String modelId) {
+		EntityCache cache = entityCache(modelName);
+		if (cache != null) {
+			return findByModelId(modelName, modelClasses.getModelClass(modelName), modelId, cache);
+		}
 		List<T> model = findByProperty(modelName, DocumentModel.MODEL_ID, modelId);
 		if (model == null || model.size() == 0) {
 			return null;
@@ -356,6 +1076,10 @@ public class GreenDBPersistence implements PersistenceService {
 
 	@Override
 	public <T> T findById(Class<T> clazz, String modelId) {
+		EntityCache cache = entityCache(getModelName(clazz));
+		if (cache != null) {
+			return findByModelId(getModelName(clazz), clazz, modelId, cache);
+		}
 		List<T> model = findByProperty(clazz, DocumentModel.MODEL_ID, modelId);
 		if (model == null || model.size() == 0) {
 			return null;
@@ -367,28 +1091,28 @@ public class GreenDBPersistence implements PersistenceService {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> findByProperty(String modelName, String propertyName, Object value) {
-		if (!modelExists(modelName)) {
-			throw new RuntimeException("No model with name `" + modelName + "` exists");
-		}
-		String query = "select from " + modelName.toLowerCase() + " where " + propertyName + " = ?";
-		logService.log(LogService.LOG_INFO, "Executing query: " + query);
-		List<ODocument> result = docbase.query(new OSQLSynchQuery<>(query), value);
-
 		List<DocumentModel> list = new ArrayList<>();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
 		try {
-			DocumentModel model;
-			ModelResource modelResource = (ModelResource) resourceRegistry.getResource(modelName);
-			Class<?> clazz = PersistedModelBase.class;
-			if (modelResource.getModelClass() != null) {
-				clazz = context.getBundle(modelResource.getBundleId()).loadClass(modelResource.getModelClass());
+			if (!db.existsCluster(modelName.toLowerCase())) {
+				throw new RuntimeException("No model with name `" + modelName + "` exists");
 			}
+			String query = buildQuery(modelName, propertyName);
+			logQuery(query);
+			List<ODocument> result = db.query(new OSQLSynchQuery<>(query), value);
+			advise(db, modelName, propertyName, value);
+
+			DocumentModel model;
+			Class<?> clazz = modelClasses.getModelClass(modelName);
 			for (ODocument doc : result) {
-				model = (DocumentModel) clazz.newInstance();
-				copy(model, doc);
+				model = toModel(clazz, doc);
 				list.add(model);
 			}
-		} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-			throw new RuntimeException(e);
+			slowPositionalQuery(query, value, start, list.size());
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.FIND, start, list.size());
 		}
 		return (List<T>) list;
 	}
@@ -396,30 +1120,28 @@ public class GreenDBPersistence implements PersistenceService {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> findByProperty(Class<T> clazz, String propertyName, Object value) {
-		if (!clazz.isAnnotationPresent(Model.class)) {
-			throw new RuntimeException("No Model annotation found on class " + clazz.getCanonicalName());
-		}
-		String modelName = clazz.getAnnotation(Model.class).name();
-		if (modelName == null) {
-			modelName = clazz.getSimpleName();
-		}
-		if (!modelExists(modelName)) {
-			throw new RuntimeException("No model with name `" + modelName + "` exists");
-		}
-		String query = "select from " + modelName.toLowerCase() + " where " + propertyName + " = ?";
-		logService.log(LogService.LOG_INFO, "Executing query: " + query);
-		List<ODocument> result = docbase.query(new OSQLSynchQuery<>(query), value);
-
+		String modelName = getModelName(clazz);
 		List<DocumentModel> list = new ArrayList<>();
-		DocumentModel model;
-		for (ODocument doc : result) {
-			try {
-				model = (DocumentModel) clazz.newInstance();
-				copy(model, doc);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!db.existsCluster(modelName.toLowerCase())) {
+				throw new RuntimeException("No model with name `" + modelName + "` exists");
+			}
+			String query = buildQuery(modelName, propertyName);
+			logQuery(query);
+			List<ODocument> result = db.query(new OSQLSynchQuery<>(query), value);
+			advise(db, modelName, propertyName, value);
+
+			DocumentModel model;
+			for (ODocument doc : result) {
+				model = toModel(clazz, doc);
 				list.add(model);
-			} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
 			}
+			slowPositionalQuery(query, value, start, list.size());
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.FIND, start, list.size());
 		}
 		return (List<T>) list;
 	}
@@ -428,62 +1150,336 @@ public class GreenDBPersistence implements PersistenceService {
 	public <T extends DocumentModel> List<T> findByProperties(String modelName, Map<String, Object> properties) {
 		String query = buildQuery(modelName, properties);
 		List<T> list = executeQuery(modelName, query, properties);
+		advise(modelName, properties);
 		return list;
 	}
 
 	@Override
 	public <T> List<T> findByProperties(Class<T> clazz, Map<String, Object> properties) {
-		if (!clazz.isAnnotationPresent(Model.class)) {
-			throw new RuntimeException("No Model annotation found on class " + clazz.getCanonicalName());
-		}
-		String modelName = clazz.getAnnotation(Model.class).name();
-		if (modelName == null) {
-			modelName = clazz.getSimpleName();
-		}
+		String modelName = getModelName(clazz);
 		String query = buildQuery(modelName, properties);
 		List<T> list = executeQuery(clazz, query, properties);
+		advise(modelName, properties);
 		return list;
 	}
 
 	@Override
 	public <T extends DocumentModel> void delete(String modelName) {
-		executeUpdate("delete from " + modelName);
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			db.command(new OCommandSQL("delete from " + modelName)).execute();
+			evict(db, cache -> cache.invalidateModel(modelName));
+			invalidateResults(db, modelName);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.DELETE, start, 0);
+		}
 	}
 
 	@Override
 	public <T extends DocumentModel> void delete(Class<T> clazz) {
-		String modelName = clazz.getAnnotation(Model.class).name();
+		String modelName = getModelName(clazz);
 		delete(modelName);
 	}
 
 	@Override
 	public <T extends DocumentModel> void delete(String modelName, String modelId) {
-		executeUpdate("delete from " + modelName.toLowerCase() + " where " + DocumentModel.MODEL_ID + " = '" + modelId
-				+ "'");
+		String command = "delete from " + modelName.toLowerCase() + " where " + DocumentModel.MODEL_ID + " = ?";
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			db.command(new OCommandSQL(command)).execute(modelId);
+			evict(db, cache -> cache.invalidateModelId(modelName, modelId));
+			invalidateResults(db, modelName);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.DELETE, start, 1);
+		}
 	}
 
 	@Override
 	public <T extends DocumentModel> void delete(Class<T> clazz, String modelId) {
-		String modelName = clazz.getAnnotation(Model.class).name();
+		String modelName = getModelName(clazz);
 		delete(modelName, modelId);
 	}
 
 	@Override
-	public <T extends DocumentModel> void delete(T documentModel) {
-		ORecordId id = new ORecordId(documentModel.getProperty(GREENDB_ID_FIELD).toString());
-		docbase.delete(id);
-	}
-
-	@Override
-	public boolean modelExists(String modelName) {
-		return docbase.existsCluster(modelName.toLowerCase());
-	}
+	public int delete(String modelName, Collection<String> modelIds) {
+		if (modelIds.isEmpty()) {
+			return 0;
+		}
+		String command = "delete from " + modelName.toLowerCase() + " where " + DocumentModel.MODEL_ID
+				+ " in (:ids)";
+		List<String> ids = new ArrayList<>(modelIds);
+		int deleted = 0;
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			for (int offset = 0; offset < ids.size(); offset += batchSize) {
+				List<String> chunk = ids.subList(offset, Math.min(offset + batchSize, ids.size()));
+				Map<String, Object> params = new HashMap<>();
+				params.put("ids", chunk);
+				Object result = db.command(new OCommandSQL(command)).execute(params);
+				if (result instanceof Number) {
+					deleted += ((Number) result).intValue();
+				}
+				evict(db, cache -> {
+					for (String modelId : chunk) {
+						cache.invalidateModelId(modelName, modelId);
+					}
+				});
+			}
+			invalidateResults(db, modelName);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.DELETE, start, deleted);
+		}
+		return deleted;
+	}
+
+	@Override
+	public <T extends DocumentModel> int delete(Class<T> clazz, Collection<String> modelIds) {
+		return delete(getModelName(clazz), modelIds);
+	}
+
+	@Override
+	public <T extends DocumentModel> void delete(T documentModel) {
+		ORecordId id = new ORecordId(documentModel.getProperty(GREENDB_ID_FIELD).toString());
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			db.delete(id);
+			evict(db, cache -> cache.invalidate(className(db, id), id.toString()));
+			invalidateResults(db, id);
+		} finally {
+			release(db);
+			metrics.record(LazyModel.modelClass(documentModel), Operation.DELETE, start, 1);
+		}
+	}
 
+	@Override
+	public boolean modelExists(String modelName) {
+		ODatabaseDocument db = acquire();
+		try {
+			return db.existsCluster(modelName.toLowerCase());
+		} finally {
+			release(db);
+		}
+	}
+
+	/**
+	 * Creates the class of a model with a unique index on
+	 * {@link DocumentModel#MODEL_ID}, plus an index on every property listed in
+	 * the <code>index.&lt;modelName&gt;</code> component property. Unless
+	 * <code>schema.mode</code> is <code>schemaless</code>, the properties of
+	 * the model class are declared as well, converting the stored records of
+	 * an existing class. A model with a <code>clusters.&lt;modelName&gt;</code>
+	 * component property gets the configured number of clusters.
+	 */
 	@Override
 	public void addModel(String modelName) {
+		String[] indexedProperties = declaredIndexes.get(modelName.toLowerCase());
+		addModel(modelName, indexedProperties == null ? new String[0] : indexedProperties);
+	}
+
+	@Override
+	public void addModel(String modelName, String... indexedProperties) {
 		String model = modelName.toLowerCase();
-		if (!docbase.existsCluster(model)) {
-			executeUpdate("create class " + model);
+		ODatabaseDocument db = acquire();
+		try {
+			if (!db.existsCluster(model)) {
+				db.command(new OCommandSQL("create class " + model)).execute();
+			}
+			OSchema schema = db.getMetadata().getSchema();
+			schema.reload();
+			OClass cls = schema.getClass(model);
+			clusterLayout.create(db, cls);
+			if (resourceRegistry != null) {
+				Class<?> modelClass = modelClasses.findModelClass(modelName);
+				if (modelClass != null) {
+					modelSchema.declare(db, cls, modelClass, logService);
+				}
+			}
+			createIndex(db, cls, DocumentModel.MODEL_ID, OType.STRING, OClass.INDEX_TYPE.UNIQUE_HASH_INDEX);
+			for (String property : indexedProperties) {
+				createIndex(db, cls, property, null, OClass.INDEX_TYPE.NOTUNIQUE);
+			}
+		} finally {
+			release(db);
+		}
+	}
+
+	@Override
+	public Map<String, Long> getIndexSuggestions() {
+		IndexAdvisor advisor = indexAdvisor;
+		return advisor == null ? Collections.<String, Long> emptyMap() : advisor.getSuggestions();
+	}
+
+	@Override
+	public CacheStatistics getResultCacheStatistics() {
+		ResultCache cache = resultCache;
+		return cache == null ? new CacheStatistics(0, 0, 0, 0) : cache.getStatistics();
+	}
+
+	@Override
+	public Map<String, CacheStatistics> getResultCacheQueryStatistics() {
+		ResultCache cache = resultCache;
+		return cache == null ? Collections.<String, CacheStatistics> emptyMap() : cache.getQueryStatistics();
+	}
+
+	@Override
+	public CacheStatistics getEntityCacheStatistics() {
+		EntityCache cache = entityCache;
+		return cache == null ? new CacheStatistics(0, 0, 0, 0) : cache.getStatistics();
+	}
+
+	@Override
+	public <T> List<T> find(Criteria<T> criteria) {
+		return find(criteria, false);
+	}
+
+	private <T> List<T> find(Criteria<T> criteria, boolean lazy) {
+		String modelName = criteria.getModelName();
+		List<T> list = new ArrayList<>();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!db.existsCluster(modelName.toLowerCase())) {
+				return list;
+			}
+			Class<?> clazz = criteria.getModelClass() == null ? modelClasses.getModelClass(modelName) : criteria
+					.getModelClass();
+			String query = CriteriaCompiler.select(criteria);
+			Map<String, Object> params = CriteriaCompiler.parameters(criteria);
+			List<ODocument> result = db.command(new OSQLSynchQuery<ODocument>(query, criteria.getLimit())).execute(
+					params);
+			advise(db, criteria);
+			List<String> projection = criteria.getProjection();
+			for (ODocument doc : result) {
+				if (lazy) {
+					list.add(this.<T> toLazyModel(clazz, doc));
+				} else {
+					list.add(projection.isEmpty() ? this.<T> toModel(clazz, doc) : this.<T> toModel(clazz, doc,
+							projection));
+				}
+			}
+			slowQuery(query, params, start, list.size());
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.QUERY, start, list.size());
+		}
+		return list;
+	}
+
+	@Override
+	public <T extends DocumentModel> List<T> findProjection(String modelName, List<String> fields) {
+		return find(Criteria.<T> from(modelName).select(fields(fields)));
+	}
+
+	@Override
+	public <T extends DocumentModel> List<T> findProjection(Class<T> clazz, List<String> fields) {
+		return find(Criteria.from(clazz).select(fields(fields)));
+	}
+
+	@Override
+	public <T> List<T> findByPropertyProjection(String modelName, String propertyName, Object value,
+			List<String> fields) {
+		return find(Criteria.<T> from(modelName).eq(propertyName, value).select(fields(fields)));
+	}
+
+	@Override
+	public <T> List<T> findByPropertyProjection(Class<T> clazz, String propertyName, Object value,
+			List<String> fields) {
+		return find(Criteria.from(clazz).eq(propertyName, value).select(fields(fields)));
+	}
+
+	@Override
+	public <T extends DocumentModel> List<T> findByPropertiesProjection(String modelName,
+			Map<String, Object> properties, List<String> fields) {
+		return find(where(Criteria.<T> from(modelName), properties).select(fields(fields)));
+	}
+
+	@Override
+	public <T> List<T> findByPropertiesProjection(Class<T> clazz, Map<String, Object> properties,
+			List<String> fields) {
+		return find(where(Criteria.from(clazz), properties).select(fields(fields)));
+	}
+
+	@Override
+	public List<DocumentModel> findLazy(String modelName) {
+		return find(Criteria.<DocumentModel> from(modelName), true);
+	}
+
+	@Override
+	public List<DocumentModel> findByPropertyLazy(String modelName, String propertyName, Object value) {
+		return find(Criteria.<DocumentModel> from(modelName).eq(propertyName, value), true);
+	}
+
+	@Override
+	public List<DocumentModel> findByPropertiesLazy(String modelName, Map<String, Object> properties) {
+		return find(where(Criteria.<DocumentModel> from(modelName), properties), true);
+	}
+
+	@Override
+	public <T extends DocumentModel> T detach(T model) {
+		return LazyModel.detach(model);
+	}
+
+	@Override
+	public <T extends DocumentModel> Subscription subscribe(String modelName, ChangeListener<T> listener) {
+		return subscribe(modelName, listener, changeBufferSize, changeOverflow);
+	}
+
+	@Override
+	public <T extends DocumentModel> Subscription subscribe(Class<T> clazz, ChangeListener<T> listener) {
+		return changeFeed.subscribe(getModelName(clazz), clazz, listener, changeBufferSize, changeOverflow);
+	}
+
+	@Override
+	public <T extends DocumentModel> Subscription subscribe(String modelName, ChangeListener<T> listener,
+			int bufferSize, OverflowPolicy overflow) {
+		return changeFeed.subscribe(modelName, modelClasses.getModelClass(modelName), listener, bufferSize,
+				overflow);
+	}
+
+	@Override
+	public long count(Criteria<?> criteria) {
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!db.existsCluster(criteria.getModelName().toLowerCase())) {
+				return 0;
+			}
+			List<ODocument> result = db.command(new OSQLSynchQuery<ODocument>(CriteriaCompiler.count(criteria)))
+					.execute(CriteriaCompiler.parameters(criteria));
+			advise(db, criteria);
+			Number count = result.isEmpty() ? null : result.get(0).<Number> field("count");
+			return count == null ? 0 : count.longValue();
+		} finally {
+			release(db);
+		}
+	}
+
+	@Override
+	public int delete(Criteria<?> criteria) {
+		if (criteria.getLimit() != -1 || !criteria.getOrder().isEmpty() || !criteria.getProjection().isEmpty()) {
+			throw new IllegalArgumentException("Delete criteria support predicates only");
+		}
+		String modelName = criteria.getModelName();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!db.existsCluster(modelName.toLowerCase())) {
+				return 0;
+			}
+			Object deleted = db.command(new OCommandSQL(CriteriaCompiler.delete(criteria))).execute(
+					CriteriaCompiler.parameters(criteria));
+			evict(db, cache -> cache.invalidateModel(modelName));
+			invalidateResults(db, modelName);
+			return deleted instanceof Number ? ((Number) deleted).intValue() : 0;
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.DELETE, start, 0);
 		}
 	}
 
@@ -511,31 +1507,89 @@ public class GreenDBPersistence implements PersistenceService {
 		return null;
 	}
 
+	/**
+	 * Starts a transaction. The database handle used by the transaction stays
+	 * bound to the calling thread until {@link #commit()} or
+	 * {@link #rollback()}.
+	 * <p>
+	 * With <code>unitOfWork.enabled</code> set, the transaction also opens a
+	 * {@link UnitOfWork}: models read by record id are returned as the same
+	 * instance, and single model saves, updates and removals are queued and
+	 * merged per model. A saved model gets its model id right away. Queued
+	 * writes are applied before the next query of the thread and at the latest
+	 * by {@link #commit()}; until then a saved model has no record id.
+	 */
 	@Override
 	public PersistenceService begin() {
-		docbase.begin();
+		ODatabaseDocument db = acquire();
+		try {
+			db.begin();
+			DatabaseBinding current = binding.get();
+			if (unitOfWorkEnabled && current.unitOfWork == null) {
+				current.unitOfWork = new UnitOfWork();
+			}
+		} catch (RuntimeException e) {
+			release(db);
+			throw e;
+		}
 		return this;
 	}
 
 	@Override
 	public PersistenceService commit() {
-		docbase.commit();
+		DatabaseBinding current = binding.get();
+		boolean active = current != null;
+		// applies the writes queued by the unit of work
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			db.commit();
+			if (active) {
+				current.afterCommit();
+			}
+		} finally {
+			if (active) {
+				current.unitOfWork = null;
+			}
+			release(db);
+			if (active) {
+				release(db);
+			}
+		}
 		return this;
 	}
 
 	@Override
 	public PersistenceService rollback() {
-		docbase.rollback();
+		DatabaseBinding current = binding.get();
+		boolean active = current != null;
+		if (active) {
+			// queued writes are dropped, not applied
+			current.unitOfWork = null;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			db.rollback();
+			binding.get().afterCommit.clear();
+		} finally {
+			release(db);
+			if (active) {
+				release(db);
+			}
+		}
 		return this;
 	}
 
 	@Reference(policy = ReferencePolicy.DYNAMIC)
-	public void setResourceRegistry(ResourceRegistry resourceRegistry) {
+	public synchronized void setResourceRegistry(ResourceRegistry resourceRegistry) {
 		this.resourceRegistry = resourceRegistry;
+		modelClasses.setResourceRegistry(resourceRegistry);
 	}
 
-	public void unsetResourceRegistry(ResourceRegistry resourceRegistry) {
-		this.resourceRegistry = resourceRegistry;
+	public synchronized void unsetResourceRegistry(ResourceRegistry resourceRegistry) {
+		if (this.resourceRegistry == resourceRegistry) {
+			this.resourceRegistry = null;
+			modelClasses.setResourceRegistry(null);
+		}
 	}
 
 	@Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
@@ -547,109 +1601,883 @@ public class GreenDBPersistence implements PersistenceService {
 		this.logService = null;
 	}
 
-	private <T extends DocumentModel> T persistNonThreaded(String modelName, T object, boolean create) {
+	/**
+	 * Binds a database handle to the calling thread. In pooled mode the handle
+	 * is borrowed from the pool, otherwise the shared handle of the connection
+	 * is used. Calls nest: a thread that already holds a handle, e.g. inside
+	 * {@link #begin()}, gets the same handle back. Every call must be paired
+	 * with {@link #release(ODatabaseDocument)}.
+	 */
+	private ODatabaseDocument acquire() {
+		DatabaseBinding current = binding.get();
+		if (current == null) {
+			ODatabaseDocument db;
+			if (pooled) {
+				db = pool().acquire();
+			} else {
+				db = docbase;
+				if (db == null) {
+					throw new IllegalStateException("No GreenDB connection available");
+				}
+			}
+			current = new DatabaseBinding(db);
+			binding.set(current);
+			ChangeFeed feed = changeFeed;
+			if (feed != null && feed.isActive()) {
+				feed.attach(db);
+			}
+		}
+		ODatabaseRecordThreadLocal.INSTANCE.set(current.db);
+		current.depth++;
+		return current.db;
+	}
+
+	/**
+	 * Acquires a handle for a query. The writes queued by a unit of work are
+	 * applied first, so that the query sees them.
+	 */
+	private ODatabaseDocument acquireFlushed() {
+		ODatabaseDocument db = acquire();
+		try {
+			flush(binding.get());
+		} catch (RuntimeException e) {
+			release(db);
+			throw e;
+		}
+		return db;
+	}
+
+	/**
+	 * Applies the writes queued by the unit of work of a binding. Called with
+	 * the handle acquired, so the writes do not acquire it again.
+	 */
+	private void flush(DatabaseBinding current) {
+		if (current.unitOfWork == null || !current.unitOfWork.hasPending()) {
+			return;
+		}
+		for (UnitOfWork.Pending write : current.unitOfWork.drain()) {
+			switch (write.action) {
+			case INSERT:
+				persistNonThreaded(current.db, write.modelName, write.model, true);
+				break;
+			case UPDATE:
+				persistNonThreaded(current.db, write.modelName, write.model, false);
+				break;
+			case DELETE:
+				long start = start();
+				try {
+					removeNonThreaded(current.db, write.model);
+				} finally {
+					metrics.record(write.modelName, Operation.DELETE, start, 1);
+				}
+				break;
+			}
+		}
+	}
+
+	private UnitOfWork unitOfWork() {
+		DatabaseBinding current = binding.get();
+		return current == null ? null : current.unitOfWork;
+	}
+
+	private void release(ODatabaseDocument db) {
+		DatabaseBinding current = binding.get();
+		if (current == null || current.db != db) {
+			return;
+		}
+		if (--current.depth == 0) {
+			binding.remove();
+			if (pooled) {
+				ODatabaseRecordThreadLocal.INSTANCE.remove();
+				DatabasePool pool = this.pool;
+				if (pool != null) {
+					pool.release(db);
+				} else if (!db.isClosed()) {
+					db.close();
+				}
+			}
+		}
+	}
+
+	private DatabasePool pool() {
+		DatabasePool pool = this.pool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = this.pool;
+				if (pool == null) {
+					if (connection == null) {
+						throw new IllegalStateException("No GreenDB connection available");
+					}
+					pool = new DatabasePool(connection, poolMinSize, poolMaxSize, poolAcquireTimeout);
+					this.pool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	private synchronized void closePool() {
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+	}
+
+	private <T extends DocumentModel> T persistNonThreaded(ODatabaseDocument db, String modelName, T object,
+			boolean create) {
 		if (object == null) {
 			return null;
 		}
-		ODocument doc = null;
-		if (create) {
-			doc = new ODocument(modelName.toLowerCase());
-			object.setProperty(DocumentModel.MODEL_ID, generateModelId());
+		long start = start();
+		try {
+			if (!create && updateChanges(db, modelName, object)) {
+				invalidateResults(db, modelName);
+				return object;
+			}
+			ODocument doc = toDocument(db, modelName, object, create);
+			save(db, modelName, doc, create);
+			String rid = doc.getIdentity().toString();
+			object.setProperty(GREENDB_ID_FIELD, rid);
+			if (!doc.getIdentity().isPersistent()) {
+				// the record id is temporary until the transaction commits
+				binding.get().afterCommit.add(() -> object.setProperty(GREENDB_ID_FIELD, doc.getIdentity()
+						.toString()));
+			}
+			UnitOfWork unitOfWork = unitOfWork();
+			if (unitOfWork != null) {
+				unitOfWork.put(rid, object);
+			}
+			invalidateResults(db, modelName);
+			if (!create) {
+				evict(db, cache -> cache.invalidate(modelName, rid));
+			}
+			track(db, object, doc);
+			return object;
+		} finally {
+			metrics.record(modelName, create ? Operation.SAVE : Operation.UPDATE, start, 1);
+		}
+	}
+
+	/**
+	 * Writes only the properties that changed since the model was read or
+	 * written, without loading the record first. The update is conditional on
+	 * the record version the model was based on.
+	 *
+	 * @return <code>false</code> if the model has to be written in full, e.g.
+	 *         because it is not tracked or contains embedded models
+	 * @throws ConcurrentUpdateException
+	 *             if the record was modified in the meantime
+	 */
+	private boolean updateChanges(ODatabaseDocument db, String modelName, DocumentModel object) {
+		DirtyTracker tracker = dirtyTracker;
+		// record versions are only final after a commit
+		if (tracker == null || db.getTransaction().isActive()) {
+			return false;
+		}
+		DirtyTracker.Snapshot snapshot = tracker.get(object);
+		if (snapshot == null || !snapshot.rid.equals(String.valueOf(object.getProperty(GREENDB_ID_FIELD)))) {
+			return false;
+		}
+		DirtyTracker.Changes changes = snapshot.diff(object, RECORD_ID_PROPERTIES);
+		if (changes == null) {
+			return false;
+		}
+		if (changes.isEmpty()) {
+			return true;
+		}
+		StringBuilder command = new StringBuilder("update ").append(snapshot.rid).append(" set ");
+		Object[] params = new Object[changes.set.size() + 1];
+		int i = 0;
+		for (Map.Entry<String, Object> change : changes.set.entrySet()) {
+			command.append(change.getKey()).append(" = ?, ");
+			params[i++] = change.getValue();
+		}
+		command.setLength(command.length() - 2);
+		command.append(" where @version = ?");
+		params[i] = snapshot.version;
+		metrics.written(modelName, Operation.UPDATE, changes.set.size());
+		Object updated = db.command(new OCommandSQL(command.toString())).execute(params);
+		if (!(updated instanceof Number) || ((Number) updated).intValue() == 0) {
+			tracker.forget(object);
+			throw new ConcurrentUpdateException(snapshot.rid, snapshot.version);
+		}
+		evict(db, cache -> cache.invalidate(modelName, snapshot.rid));
+		tracker.track(object, snapshot.rid, snapshot.version + 1, RECORD_ID_PROPERTIES);
+		return true;
+	}
+
+	private void track(ODatabaseDocument db, DocumentModel model, ODocument doc) {
+		DirtyTracker tracker = dirtyTracker;
+		if (tracker == null) {
+			return;
+		}
+		if (db.getTransaction().isActive() || !doc.getIdentity().isPersistent()) {
+			tracker.forget(model);
 		} else {
-			ORecordId id = new ORecordId((String) object.getProperty(GREENDB_ID_FIELD));
-			doc = docbase.load(id);
+			tracker.track(model, doc);
 		}
-		copy(doc, object.getProperties(), create);
-		doc.save(create);
-		object.setProperty(GREENDB_ID_FIELD, doc.getIdentity().toString());
-		return object;
 	}
 
-	private <T extends DocumentModel> T persistNonThreaded(T object, boolean create) {
+	private <T extends DocumentModel> T persistNonThreaded(ODatabaseDocument db, T object, boolean create) {
 		if (object == null) {
 			return null;
 		}
-		if (!object.getClass().isAnnotationPresent(Model.class)) {
-			throw new RuntimeException("No Model annotation found on class " + object.getClass().getCanonicalName());
+		return persistNonThreaded(db, modelName(object), object, create);
+	}
+
+	/**
+	 * Writes all properties of the model to the record with its model id,
+	 * creating the record if there is none. Outside a transaction a unique
+	 * index violation, i.e. a concurrent upsert inserting the same model id
+	 * first, is retried once as an update.
+	 *
+	 * @return the written record, or <code>null</code> if the command did not
+	 *         return it
+	 */
+	private ODocument upsert(ODatabaseDocument db, String modelName, DocumentModel object) {
+		if (object.getProperty(DocumentModel.MODEL_ID) == null) {
+			object.setProperty(DocumentModel.MODEL_ID, generateModelId());
+		}
+		StringBuilder command = new StringBuilder("update ").append(modelName.toLowerCase()).append(" set ");
+		List<Object> params = new ArrayList<>();
+		for (Map.Entry<String, Object> property : object.getProperties().entrySet()) {
+			if (RECORD_ID_PROPERTIES.contains(property.getKey())) {
+				continue;
+			}
+			Object value = property.getValue();
+			command.append(property.getKey()).append(" = ?, ");
+			if (value instanceof DocumentModel) {
+				value = DocumentMapper.embed(property.getKey(), (DocumentModel) value);
+			}
+			params.add(value);
+		}
+		command.setLength(command.length() - 2);
+		command.append(" upsert return after where ").append(DocumentModel.MODEL_ID).append(" = ?");
+		params.add(object.getProperty(DocumentModel.MODEL_ID));
+		metrics.written(modelName, Operation.UPSERT, params.size() - 1);
+		OCommandSQL sql = new OCommandSQL(command.toString());
+		logQuery(sql.getText());
+		Object result;
+		try {
+			result = db.command(sql).execute(params.toArray());
+		} catch (ORecordDuplicatedException e) {
+			if (db.getTransaction().isActive()) {
+				throw e;
+			}
+			result = db.command(sql).execute(params.toArray());
 		}
-		String modelName = object.getClass().getAnnotation(Model.class).name();
-		if (modelName == null) {
-			modelName = object.getClass().getSimpleName();
+		if (result instanceof Collection) {
+			Collection<?> records = (Collection<?>) result;
+			result = records.isEmpty() ? null : records.iterator().next();
 		}
+		return result instanceof OIdentifiable ? ((OIdentifiable) result).<ODocument> getRecord() : null;
+	}
+
+	private void upserted(ODatabaseDocument db, String modelName, DocumentModel object, ODocument doc) {
+		if (doc == null) {
+			if (dirtyTracker != null) {
+				dirtyTracker.forget(object);
+			}
+			return;
+		}
+		String rid = doc.getIdentity().toString();
+		object.setProperty(GREENDB_ID_FIELD, rid);
+		evict(db, cache -> cache.invalidate(modelName, rid));
+		invalidateResults(db, modelName);
+		track(db, object, doc);
+	}
+
+	/**
+	 * Creates the class of a model, so that an upsert has a class to update
+	 * and a unique index to look up the model id with.
+	 */
+	/**
+	 * Adds the model unless its class exists.
+	 *
+	 * @throws RuntimeException
+	 *             if the class is missing while a transaction is active, since
+	 *             schema changes cannot be part of it
+	 */
+	private void ensureModel(ODatabaseDocument db, String modelName) {
+		if (!db.existsCluster(modelName.toLowerCase())) {
+			if (db.getTransaction().isActive()) {
+				throw new RuntimeException("Model " + modelName
+						+ " does not exist, it has to be added before the transaction begins");
+			}
+			addModel(modelName);
+		}
+	}
+
+	private ODocument toDocument(ODatabaseDocument db, String modelName, DocumentModel object, boolean create) {
 		ODocument doc = null;
 		if (create) {
 			doc = new ODocument(modelName.toLowerCase());
-			object.setProperty(DocumentModel.MODEL_ID, generateModelId());
 		} else {
 			ORecordId id = new ORecordId((String) object.getProperty(GREENDB_ID_FIELD));
-			doc = docbase.load(id);
-		}
-		copy(doc, object.getProperties(), create);
-		doc.save(create);
-		object.setProperty(GREENDB_ID_FIELD, doc.getIdentity().toString());
-		return object;
-	}
-
-	private <T extends DocumentModel> void removeNonThreaded(T object) {
-		docbase.delete((ORecordId) object.getProperty(GREENDB_ID_FIELD));
-	}
-
-	private <T extends DocumentModel> void copy(T model, ODocument doc) throws ClassNotFoundException,
-	InstantiationException, IllegalAccessException {
-		for (String field : doc.fieldNames()) {
-			Object value = doc.field(field);
-			if (value instanceof ODocument) {
-				ODocument subdoc = (ODocument) value;
-				for (Resource resource : resourceRegistry.getResources(ResourceType.Model)) {
-					ModelResource modelResource = (ModelResource) resource;
-					if (modelResource.getName().toLowerCase().equals(subdoc.getClassName())) {
-						Class<?> cls = PersistedModelBase.class;
-						if (modelResource.getModelClass() != null) {
-							cls = context.getBundle(modelResource.getBundleId()).loadClass(
-									modelResource.getModelClass());
-						}
-						DocumentModel obj = (DocumentModel) cls.newInstance();
-						copy(obj, subdoc);
-						model.setProperty(field, obj);
-						break;
-					}
+			doc = db.load(id);
+		}
+		Map<String, Object> properties = object.getProperties();
+		DocumentMapper.write(doc, properties, create);
+		metrics.written(modelName, create ? Operation.SAVE : Operation.UPDATE, properties.size());
+		return doc;
+	}
+
+	private String getModelName(Class<?> clazz) {
+		return DocumentMapper.getModelName(clazz);
+	}
+
+	/**
+	 * @return the model name of a model, for a lazy model the one of its
+	 *         underlying model
+	 */
+	private String modelName(Object model) {
+		return getModelName(LazyModel.modelClass(model));
+	}
+
+	private <T extends DocumentModel> void removeNonThreaded(ODatabaseDocument db, T object) {
+		ORecordId id = new ORecordId(object.getProperty(GREENDB_ID_FIELD).toString());
+		db.delete(id);
+		evict(db, cache -> cache.invalidate(className(db, id), id.toString()));
+		invalidateResults(db, id);
+	}
+
+	private EntityCache entityCache(String modelName) {
+		EntityCache cache = entityCache;
+		return cache != null && cache.isEnabled(modelName) ? cache : null;
+	}
+
+	/**
+	 * Applies an eviction to the entity cache. Inside a transaction it is
+	 * applied again after the commit, so that a concurrent reader cannot leave
+	 * the pre-transaction state in the cache.
+	 */
+	private void evict(ODatabaseDocument db, Consumer<EntityCache> eviction) {
+		EntityCache cache = entityCache;
+		if (cache == null) {
+			return;
+		}
+		eviction.accept(cache);
+		if (db.getTransaction().isActive()) {
+			binding.get().afterCommit.add(() -> eviction.accept(cache));
+		}
+	}
+
+	/**
+	 * Runs a query through the result cache. Inside a transaction the cache is
+	 * bypassed, since the query may see uncommitted writes.
+	 */
+	private List<ODocument> query(ODatabaseDocument db, String modelName, String query, Object params) {
+		ResultCache cache = resultCache;
+		OSQLSynchQuery<ODocument> oquery = new OSQLSynchQuery<ODocument>(query);
+		if (cache == null || db.getTransaction().isActive()) {
+			return db.command(oquery).execute(params);
+		}
+		ResultCache.Key key = cache.key(modelName, query, params);
+		List<ODocument> list = cache.get(key);
+		if (list == null) {
+			long[] stamp = cache.stamp(key);
+			list = db.command(oquery).execute(params);
+			cache.put(key, stamp, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Invalidates the cached results of queries reading the model, or all
+	 * cached results if the model is <code>null</code>. Like
+	 * {@link #evict(ODatabaseDocument, Consumer)} it is applied again after the
+	 * commit of an active transaction.
+	 */
+	private void invalidateResults(ODatabaseDocument db, String modelName) {
+		ResultCache cache = resultCache;
+		if (cache == null) {
+			return;
+		}
+		Runnable invalidation = modelName == null ? cache::clear : () -> cache.invalidate(modelName);
+		invalidation.run();
+		if (db.getTransaction().isActive()) {
+			binding.get().afterCommit.add(invalidation);
+		}
+	}
+
+	/**
+	 * Invalidates the cached results of the models of saved objects.
+	 */
+	private void invalidateResults(ODatabaseDocument db, Object[] objects) {
+		if (resultCache == null) {
+			return;
+		}
+		Set<Class<?>> classes = new HashSet<>();
+		for (Object object : objects) {
+			if (object != null && classes.add(LazyModel.modelClass(object))) {
+				invalidateResults(db, modelName(object));
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the cached results of the classes owning the records. The
+	 * class is taken from the cluster, as removed objects need not have a
+	 * model class of their own.
+	 */
+	private void invalidateResults(ODatabaseDocument db, ORID... rids) {
+		if (resultCache == null) {
+			return;
+		}
+		Set<Integer> clusters = new HashSet<>();
+		for (ORID rid : rids) {
+			if (rid != null && clusters.add(rid.getClusterId())) {
+				invalidateResults(db, className(db, rid));
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the class owning the record, taken from its cluster,
+	 *         or <code>null</code>
+	 */
+	private static String className(ODatabaseDocument db, ORID rid) {
+		OClass cls = db.getMetadata().getSchema().getClassByClusterId(rid.getClusterId());
+		return cls == null ? null : cls.getName();
+	}
+
+	private <T> T findByModelId(String modelName, Class<?> clazz, String modelId, EntityCache cache) {
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			long stamp = cache.stamp(modelName);
+			ODocument doc = cache.getByModelId(modelName, modelId);
+			if (doc == null) {
+				String query = buildQuery(modelName, DocumentModel.MODEL_ID);
+				List<ODocument> result = db.query(new OSQLSynchQuery<>(query), modelId);
+				if (result.isEmpty()) {
+					return null;
 				}
+				doc = result.get(0);
+				if (!db.getTransaction().isActive()) {
+					cache.put(modelName, stamp, doc);
+				}
+			}
+			return toModel(clazz, doc);
+		} finally {
+			release(db);
+		}
+	}
+
+	/**
+	 * Creates an index on a property of the class unless the property is
+	 * indexed already. Failures, e.g. duplicate values for a unique index, are
+	 * logged and do not stop the caller.
+	 *
+	 * @param type
+	 *            type of the property, sampled from the stored records if
+	 *            <code>null</code>
+	 * @return <code>true</code> if the index was created
+	 */
+	private boolean createIndex(ODatabaseDocument db, OClass cls, String property, OType type,
+			OClass.INDEX_TYPE indexType) {
+		if (cls.areIndexed(property)) {
+			return false;
+		}
+		try {
+			if (cls.getProperty(property) == null) {
+				cls.createProperty(property, type == null ? sampleType(db, cls, property) : type);
+			}
+			cls.createIndex(cls.getName() + "." + property, indexType, property);
+			if (logService != null) {
+				logService.log(LogService.LOG_INFO, "Created " + indexType + " index on " + cls.getName() + "."
+						+ property);
+			}
+			return true;
+		} catch (RuntimeException e) {
+			if (logService != null) {
+				logService.log(LogService.LOG_WARNING, "Could not create " + indexType + " index on "
+						+ cls.getName() + "." + property, e);
+			}
+			return false;
+		}
+	}
+
+	private OType sampleType(ODatabaseDocument db, OClass cls, String property) {
+		List<ODocument> sample = db.query(new OSQLSynchQuery<>("select " + property + " from " + cls.getName()
+				+ " where " + property + " is not null", 1));
+		Object value = sample.isEmpty() ? null : sample.get(0).field(property);
+		OType type = value == null ? null : OType.getTypeByClass(value.getClass());
+		return type == null ? OType.STRING : type;
+	}
+
+	private void advise(String modelName, Map<String, Object> properties) {
+		if (indexAdvisor == null) {
+			return;
+		}
+		ODatabaseDocument db = acquire();
+		try {
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				advise(db, modelName, property.getKey(), property.getValue());
+			}
+		} finally {
+			release(db);
+		}
+	}
+
+	/**
+	 * Counts a query predicate and, the first time the property reaches the
+	 * advisor's threshold without an index, logs a suggestion or creates the
+	 * index.
+	 */
+	private void advise(ODatabaseDocument db, String modelName, String propertyName, Object value) {
+		IndexAdvisor advisor = indexAdvisor;
+		if (advisor == null || !advisor.record(modelName, propertyName)) {
+			return;
+		}
+		OClass cls = db.getMetadata().getSchema().getClass(modelName.toLowerCase());
+		if (cls == null || cls.areIndexed(propertyName)) {
+			return;
+		}
+		advisor.suggest(modelName, propertyName);
+		// schema changes cannot be part of the caller's transaction
+		if (indexAutoCreate && !db.getTransaction().isActive()) {
+			Object sample = value;
+			if (sample instanceof Collection) {
+				Collection<?> values = (Collection<?>) sample;
+				sample = values.isEmpty() ? null : values.iterator().next();
+			}
+			OType type = sample == null ? null : OType.getTypeByClass(sample.getClass());
+			if (createIndex(db, cls, propertyName, type, OClass.INDEX_TYPE.NOTUNIQUE)) {
+				advisor.indexed(modelName, propertyName);
+			}
+		} else if (logService != null) {
+			logService.log(LogService.LOG_WARNING, "Property " + propertyName + " of model " + modelName
+					+ " is queried often but has no index");
+		}
+	}
+
+	private static String[] fields(List<String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("No fields given for the projection");
+		}
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * Adds the properties as predicates, matching collection values with
+	 * <code>in</code> like {@link #findByProperties(String, Map)}.
+	 */
+	private static <T> Criteria<T> where(Criteria<T> criteria, Map<String, Object> properties) {
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			Object value = property.getValue();
+			if (value instanceof Collection) {
+				criteria.in(property.getKey(), (Collection<?>) value);
 			} else {
-				model.setProperty(field, value);
+				criteria.eq(property.getKey(), value);
 			}
 		}
-		model.setProperty(DocumentModel.ID, doc.getIdentity());
+		return criteria;
 	}
 
-	private void copy(ODocument doc, Map<String, Object> properties, boolean create) {
-		for (String property : properties.keySet()) {
-			Object value = properties.get(property);
-			// TODO: what about null values?
-			if (value instanceof DocumentModel) {
-				DocumentModel model = (DocumentModel) value;
-				// String modelName =
-				// model.getClass().getAnnotation(Model.class).name();
-				ODocument subdoc = null;
-				if (create) {
-					subdoc = new ODocument(property.toLowerCase());
+	private void advise(ODatabaseDocument db, Criteria<?> criteria) {
+		if (indexAdvisor == null) {
+			return;
+		}
+		for (Criteria.Predicate predicate : criteria.getPredicates()) {
+			List<Object> values = predicate.getValues();
+			advise(db, criteria.getModelName(), predicate.getProperty(), values.isEmpty() ? null : values.get(0));
+		}
+	}
+
+	private <T> Page<T> findPage(String modelName, Class<?> clazz, String cursor, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Invalid page size: " + pageSize);
+		}
+		// ordered by record id, which is unique across the clusters of the class;
+		// the @rid condition starts the scan right after the cursor
+		String query = "select from " + modelName.toLowerCase();
+		List<T> items = new ArrayList<>();
+		long start = start();
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!db.existsCluster(modelName.toLowerCase())) {
+				return new Page<>(items, null);
+			}
+			List<ODocument> result;
+			if (cursor == null) {
+				query += " order by @rid asc";
+				logQuery(query);
+				result = db.query(new OSQLSynchQuery<>(query, pageSize + 1));
+			} else {
+				query += " where @rid > ? order by @rid asc";
+				logQuery(query);
+				result = db.query(new OSQLSynchQuery<>(query, pageSize + 1), new ORecordId(cursor));
+			}
+			boolean more = result.size() > pageSize;
+			int count = more ? pageSize : result.size();
+			for (int i = 0; i < count; i++) {
+				items.add(this.<T> toModel(clazz, result.get(i)));
+			}
+			if (cursor == null) {
+				slowQuery(query, null, start, count);
+			} else {
+				slowPositionalQuery(query, cursor, start, count);
+			}
+			String next = more ? result.get(count - 1).getIdentity().toString() : null;
+			return new Page<>(items, next);
+		} finally {
+			release(db);
+			metrics.record(modelName, Operation.QUERY, start, items.size());
+		}
+	}
+
+	private <T> Stream<T> browse(String modelName, Class<?> clazz) {
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			ORecordIteratorClass<ODocument> itr = db.browseClass(modelName.toLowerCase());
+			Thread owner = Thread.currentThread();
+			AtomicBoolean released = new AtomicBoolean();
+			Runnable close = () -> {
+				// the handle is bound to the owner, no other thread can release it
+				checkOwner(owner);
+				if (released.compareAndSet(false, true)) {
+					release(db);
+				}
+			};
+			Iterator<T> models = new Iterator<T>() {
+				@Override
+				public boolean hasNext() {
+					if (released.get()) {
+						return false;
+					}
+					checkOwner(owner);
+					if (itr.hasNext()) {
+						return true;
+					}
+					close.run();
+					return false;
+				}
+
+				@Override
+				public T next() {
+					return toModel(clazz, itr.next());
+				}
+			};
+			return StreamSupport.stream(
+					Spliterators.spliteratorUnknownSize(models, Spliterator.ORDERED | Spliterator.NONNULL), false)
+					.onClose(close);
+		} catch (RuntimeException e) {
+			release(db);
+			throw e;
+		}
+	}
+
+	private static void checkOwner(Thread owner) {
+		if (Thread.currentThread() != owner) {
+			throw new IllegalStateException("Stream must be read and closed on the thread that opened it, "
+					+ owner.getName());
+		}
+	}
+
+	/**
+	 * Reads every cluster of a class in a task of its own on the scan pool,
+	 * each with its own database handle. The stream yields the models of a
+	 * cluster once its task is done. Without the pool there is only the one
+	 * shared handle, which must not be used by several threads at once, and
+	 * inside a transaction or unit of work the caller must see its own
+	 * writes; in these cases the class is read by the calling thread instead.
+	 */
+	private <T> Stream<T> scan(String modelName, Class<?> clazz) {
+		String model = modelName.toLowerCase();
+		int[] clusterIds;
+		ODatabaseDocument db = acquireFlushed();
+		try {
+			if (!pooled || db.getTransaction().isActive() || unitOfWork() != null) {
+				List<T> list = new ArrayList<>();
+				for (ODocument doc : db.browseClass(model)) {
+					list.add(this.<T> toModel(clazz, doc));
+				}
+				return list.stream();
+			}
+			OClass cls = db.getMetadata().getSchema().getClass(model);
+			if (cls == null) {
+				return Stream.empty();
+			}
+			clusterIds = cls.getPolymorphicClusterIds();
+		} finally {
+			release(db);
+		}
+		List<ForkJoinTask<List<T>>> tasks = new ArrayList<>(clusterIds.length);
+		for (int clusterId : clusterIds) {
+			tasks.add(scanPool.submit(() -> this.<T> browseCluster(clusterId, clazz)));
+		}
+		return tasks.stream().flatMap(task -> task.join().stream()).unordered().onClose(() -> {
+			for (ForkJoinTask<List<T>> task : tasks) {
+				task.cancel(false);
+			}
+		});
+	}
+
+	private <T> List<T> browseCluster(int clusterId, Class<?> clazz) {
+		List<T> list = new ArrayList<>();
+		ODatabaseDocument db = acquire();
+		try {
+			for (ODocument doc : db.browseCluster(db.getClusterNameById(clusterId))) {
+				list.add(this.<T> toModel(clazz, doc));
+			}
+		} finally {
+			release(db);
+		}
+		return list;
+	}
+
+	/**
+	 * Saves a document, placing a new record in the cluster chosen by the
+	 * cluster layout of its model.
+	 */
+	private void save(ODatabaseDocument db, String modelName, ODocument doc, boolean create) {
+		String cluster = create ? clusterLayout.select(db, modelName) : null;
+		if (cluster == null) {
+			doc.save(create);
+		} else {
+			doc.save(cluster, true);
+		}
+	}
+
+	private <T> Stream<T> streamQuery(String query, Map<String, Object> params, Function<ODocument, T> mapper) {
+		logQuery(query);
+		ODatabaseDocument caller = acquireFlushed();
+		try {
+			// the shared handle of the connection must not be used by two threads
+			if (!pooled || caller.getTransaction().isActive() || unitOfWork() != null) {
+				OSQLSynchQuery<ODocument> oquery = new OSQLSynchQuery<ODocument>(query);
+				List<ODocument> docs = params == null ? caller.command(oquery).execute() : caller.command(oquery)
+						.execute(params);
+				List<T> list = new ArrayList<>(docs.size());
+				for (ODocument doc : docs) {
+					list.add(mapper.apply(doc));
+				}
+				return list.stream();
+			}
+		} finally {
+			release(caller);
+		}
+		AsyncQueryIterator<T> results = new AsyncQueryIterator<>(streamBufferSize, streamTimeout, mapper);
+		streamExecutor.execute(() -> {
+			ODatabaseDocument db = null;
+			try {
+				db = acquire();
+				OSQLAsynchQuery<ODocument> oquery = new OSQLAsynchQuery<ODocument>(query, results);
+				if (params == null) {
+					db.command(oquery).execute();
 				} else {
-					subdoc = doc.field(property);
+					db.command(oquery).execute(params);
+				}
+				results.end();
+			} catch (Throwable e) {
+				results.fail(e);
+			} finally {
+				if (db != null) {
+					release(db);
 				}
-				copy(subdoc, model.getProperties(), create);
-				doc.field(property, subdoc);
-			} else {
-				doc.field(property, value);
 			}
+		});
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(results::close);
+	}
+
+	private <T> T toModel(Class<?> clazz, ODocument doc) {
+		UnitOfWork unitOfWork = doc.getIdentity().isPersistent() ? unitOfWork() : null;
+		if (unitOfWork != null) {
+			DocumentModel known = unitOfWork.get(doc.getIdentity().toString());
+			if (clazz.isInstance(known)) {
+				@SuppressWarnings("unchecked")
+				T result = (T) known;
+				return result;
+			}
+		}
+		DocumentModel model = ModelFactory.newInstance(clazz);
+		DocumentMapper.read(model, doc, embedded);
+		if (unitOfWork != null) {
+			unitOfWork.put(doc.getIdentity().toString(), model);
+		}
+		if (metrics.isEnabled()) {
+			metrics.hydrated(doc.getClassName(), doc.fields());
+		}
+		if (dirtyTracker != null && doc.getIdentity().isPersistent()) {
+			dirtyTracker.track(model, doc);
+		}
+		@SuppressWarnings("unchecked")
+		T result = (T) model;
+		return result;
+	}
+
+	/**
+	 * Hydrates a model from a projection. Only the projected properties are
+	 * set; the model is not tracked for partial updates.
+	 */
+	private <T> T toModel(Class<?> clazz, ODocument doc, List<String> projection) {
+		DocumentModel model = ModelFactory.newInstance(clazz);
+		for (String field : projection) {
+			DocumentMapper.read(model, field, doc.field(field), embedded);
+		}
+		OIdentifiable rid = doc.rawField(CriteriaCompiler.PROJECTION_RID);
+		if (rid != null) {
+			DocumentMapper.identify(model, rid.getIdentity());
+		}
+		@SuppressWarnings("unchecked")
+		T result = (T) model;
+		return result;
+	}
+
+	/**
+	 * Wraps a document in a lazy model, see {@link LazyModel}. The model is
+	 * not tracked for partial updates.
+	 */
+	private <T> T toLazyModel(Class<?> clazz, ODocument doc) {
+		DocumentModel model = LazyModel.create(ModelFactory.newInstance(clazz), doc, fieldLoader, lazyEmbedded);
+		if (metrics.isEnabled()) {
+			metrics.hydrated(doc.getClassName(), 0);
+		}
+		@SuppressWarnings("unchecked")
+		T result = (T) model;
+		return result;
+	}
+
+	private Object loadField(ODocument doc, String field) {
+		ODatabaseDocument db = acquire();
+		try {
+			return doc.field(field);
+		} finally {
+			release(db);
+		}
+	}
+
+	private DocumentModel toLazyEmbeddedModel(ODocument subdoc) {
+		Class<?> cls = modelClasses.findModelClass(subdoc.getClassName());
+		return cls == null ? null : toLazyModel(cls, subdoc);
+	}
+
+	private DocumentModel toChangedModel(Class<?> clazz, ODocument doc) {
+		ODatabaseDocument db = acquire();
+		try {
+			return toModel(clazz, doc);
+		} finally {
+			release(db);
 		}
+	}
+
+	private DocumentModel toEmbeddedModel(ODocument subdoc) {
+		Class<?> cls = modelClasses.findModelClass(subdoc.getClassName());
+		return cls == null ? null : toModel(cls, subdoc);
+	}
 
+	private String buildQuery(String modelName, String propertyName) {
+		return "select from " + modelName.toLowerCase() + " where " + propertyName + " = ?";
 	}
 
 	private String buildQuery(String modelName, Map<String, Object> properties) {
 		StringBuilder queryBuilder = new StringBuilder();
 		queryBuilder.append("select * from ").append(modelName).append(" where ");
-		for (String prop : properties.keySet()) {
-			Object values = properties.get(prop);
-			if (values instanceof Collection) {
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			String prop = property.getKey();
+			if (property.getValue() instanceof Collection) {
 				queryBuilder.append(prop).append(" in (:").append(prop).append(")");
 			} else {
 				queryBuilder.append(prop).append(" = :").append(prop);
@@ -660,8 +2488,152 @@ public class GreenDBPersistence implements PersistenceService {
 		return queryBuilder.toString();
 	}
 
+	/**
+	 * The start time of a call, if it is measured for the metrics or the slow
+	 * query log.
+	 */
+	private long start() {
+		return metrics.isEnabled() || slowQueries != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Logs a query with a single positional parameter if it was slow.
+	 */
+	private void slowPositionalQuery(String query, Object value, long start, int rows) {
+		if (slowQueries != null) {
+			logSlowQuery(query, new Object[] { value }, start, rows);
+		}
+	}
+
+	private void slowQuery(String query, Map<String, Object> params, long start, int rows) {
+		logSlowQuery(query, params, start, rows);
+	}
+
+	/**
+	 * Logs a query if it was slow, with its plan if configured. The plan is
+	 * captured by running the query again with <code>explain</code> on the
+	 * explain thread, so the caller does not wait for it.
+	 *
+	 * @param params
+	 *            named parameters as a {@link Map}, positional ones as an
+	 *            array, or <code>null</code>
+	 */
+	private void logSlowQuery(String query, Object params, long start, int rows) {
+		SlowQueryRecorder recorder = slowQueries;
+		if (recorder == null) {
+			return;
+		}
+		long time = System.nanoTime() - start;
+		if (!recorder.isSlow(time)) {
+			return;
+		}
+		long timestamp = System.currentTimeMillis();
+		ExecutorService explainer = explainExecutor;
+		if (recorder.isExplain() && explainer != null) {
+			// the caller may reuse its parameters once it returns
+			Object values = params instanceof Map ? new LinkedHashMap<>((Map<?, ?>) params)
+					: params != null ? ((Object[]) params).clone() : null;
+			try {
+				explainer.execute(() -> recorder.record(query, values, rows, time, timestamp, explain(query,
+						values)));
+			} catch (RejectedExecutionException e) {
+				recorder.record(query, params, rows, time, timestamp, "explain skipped: too many slow queries");
+			}
+		} else {
+			recorder.record(query, params, rows, time, timestamp, null);
+		}
+		if (logService != null) {
+			logService.log(LogService.LOG_WARNING, "Slow query (" + TimeUnit.NANOSECONDS.toMillis(time) + " ms, "
+					+ rows + " rows): " + query);
+		}
+	}
+
+	/**
+	 * Runs <code>explain</code> for a query on a database handle of its own.
+	 */
+	private String explain(String query, Object params) {
+		Connection connection = this.connection;
+		if (connection == null) {
+			return "explain failed: no connection";
+		}
+		ODatabaseDocument db = null;
+		try {
+			db = connection.getDatabaseDocument();
+			ODatabaseRecordThreadLocal.INSTANCE.set(db);
+			OCommandSQL explain = new OCommandSQL("explain " + query);
+			Object result;
+			if (params instanceof Map) {
+				result = db.command(explain).execute(params);
+			} else if (params != null) {
+				result = db.command(explain).execute((Object[]) params);
+			} else {
+				result = db.command(explain).execute();
+			}
+			return result instanceof ODocument ? ((ODocument) result).toJSON() : String.valueOf(result);
+		} catch (RuntimeException e) {
+			return "explain failed: " + e;
+		} finally {
+			if (db != null && !db.isClosed()) {
+				db.close();
+			}
+			ODatabaseRecordThreadLocal.INSTANCE.remove();
+		}
+	}
+
+	/**
+	 * @return the class of the first model in a batch, for the metrics
+	 */
+	private static Class<?> modelClass(Object[] objects) {
+		for (Object model : objects) {
+			if (model != null) {
+				return LazyModel.modelClass(model);
+			}
+		}
+		return null;
+	}
+
+	private void logQuery(String query) {
+		LogService log = logService;
+		if (logQueries && log != null) {
+			log.log(LogService.LOG_INFO, "Executing query: " + query);
+		}
+	}
+
 	private String generateModelId() {
 		return UUID.randomUUID().toString();
 	}
 
+	/**
+	 * Gives a model to be inserted a new model id. Inside a unit of work this
+	 * happens when the insert is queued, not when it is written.
+	 */
+	private void assignModelId(Object object) {
+		if (object != null) {
+			((DocumentModel) object).setProperty(DocumentModel.MODEL_ID, generateModelId());
+		}
+	}
+
+	/**
+	 * The database handle bound to a thread, the number of unreleased
+	 * {@link GreenDBPersistence#acquire()} calls holding it and the cache
+	 * evictions to repeat when its transaction commits.
+	 */
+	private static final class DatabaseBinding {
+		final ODatabaseDocument db;
+		final List<Runnable> afterCommit = new ArrayList<>();
+		UnitOfWork unitOfWork;
+		int depth;
+
+		DatabaseBinding(ODatabaseDocument db) {
+			this.db = db;
+		}
+
+		void afterCommit() {
+			for (Runnable action : afterCommit) {
+				action.run();
+			}
+			afterCommit.clear();
+		}
+	}
+
 }
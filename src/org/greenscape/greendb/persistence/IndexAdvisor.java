@@ -0,0 +1,98 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the properties used as query predicates per model and reports a
+ * property once, when it has been queried <code>threshold</code> times. The
+ * caller decides whether the property is already indexed and what to do about
+ * it. Recording a query looks the counter up by model and property name
+ * without building a key.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class IndexAdvisor {
+
+	private final long threshold;
+	private final ConcurrentMap<String, ConcurrentMap<String, Counter>> counts = new ConcurrentHashMap<>();
+	private final Set<String> suggested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	IndexAdvisor(long threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Counts one query on the property.
+	 *
+	 * @return <code>true</code> for exactly one call once the property reached
+	 *         the threshold
+	 */
+	boolean record(String modelName, String propertyName) {
+		ConcurrentMap<String, Counter> properties = counts.get(modelName);
+		if (properties == null) {
+			properties = counts.computeIfAbsent(modelName, k -> new ConcurrentHashMap<>());
+		}
+		Counter count = properties.get(propertyName);
+		if (count == null) {
+			count = properties.computeIfAbsent(propertyName, k -> new Counter());
+		}
+		count.increment();
+		return !count.reported.get() && count.sum() >= threshold && count.reported.compareAndSet(false, true);
+	}
+
+	/**
+	 * Records that the property reported by {@link #record(String, String)}
+	 * has no index.
+	 */
+	void suggest(String modelName, String propertyName) {
+		suggested.add(key(modelName, propertyName));
+	}
+
+	/**
+	 * Records that the property got an index.
+	 */
+	void indexed(String modelName, String propertyName) {
+		suggested.remove(key(modelName, propertyName));
+	}
+
+	/**
+	 * @return query counts of the properties that are queried often but have
+	 *         no index, keyed by <code>model.property</code>
+	 */
+	Map<String, Long> getSuggestions() {
+		Map<String, Long> suggestions = new TreeMap<>();
+		if (suggested.isEmpty()) {
+			return suggestions;
+		}
+		for (Map.Entry<String, ConcurrentMap<String, Counter>> model : counts.entrySet()) {
+			for (Map.Entry<String, Counter> property : model.getValue().entrySet()) {
+				String key = key(model.getKey(), property.getKey());
+				if (suggested.contains(key)) {
+					suggestions.merge(key, property.getValue().sum(), Long::sum);
+				}
+			}
+		}
+		return suggestions;
+	}
+
+	private String key(String modelName, String propertyName) {
+		return modelName.toLowerCase() + "." + propertyName;
+	}
+
+	private static final class Counter extends LongAdder {
+
+		private static final long serialVersionUID = 1L;
+
+		final AtomicBoolean reported = new AtomicBoolean();
+
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.greenscape.greendb.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.greenscape.persistence.DocumentModel;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Backs a {@link DocumentModel} proxy by the document it was read from. A
+ * field is copied into the underlying model the first time
+ * <code>getProperty</code> asks for it; embedded documents become lazy models
+ * themselves. Any other call, e.g. <code>getProperties</code>, copies the
+ * remaining fields first, after which the document is dropped.
+ * <p>
+ * Fields are loaded through the <code>loader</code>, which binds a database to
+ * the calling thread, so a lazy model may be read after the query that
+ * returned it. Lazy models are not thread safe and must not outlive the
+ * persistence service; {@link #detach(Object)} them first.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+final class LazyModel implements InvocationHandler {
+
+	private static final Class<?>[] INTERFACES = { DocumentModel.class };
+
+	private final DocumentModel target;
+	private final BiFunction<ODocument, String, Object> loader;
+	private final Function<ODocument, DocumentModel> embedded;
+	private ODocument doc;
+	private Set<String> loaded = new HashSet<>();
+
+	private LazyModel(DocumentModel target, ODocument doc, BiFunction<ODocument, String, Object> loader,
+			Function<ODocument, DocumentModel> embedded) {
+		this.target = target;
+		this.doc = doc;
+		this.loader = loader;
+		this.embedded = embedded;
+	}
+
+	/**
+	 * @param target
+	 *            an empty model that receives the fields as they are read
+	 * @param loader
+	 *            reads a field of the document
+	 * @param embedded
+	 *            turns embedded documents into models, see
+	 *            {@link DocumentMapper#read(DocumentModel, ODocument, Function)}
+	 */
+	static DocumentModel create(DocumentModel target, ODocument doc, BiFunction<ODocument, String, Object> loader,
+			Function<ODocument, DocumentModel> embedded) {
+		DocumentMapper.identify(target, doc.getIdentity());
+		return (DocumentModel) Proxy.newProxyInstance(DocumentModel.class.getClassLoader(), INTERFACES,
+				new LazyModel(target, doc, loader, embedded));
+	}
+
+	/**
+	 * Reads all remaining fields of a lazy model, including its embedded
+	 * models, and returns the underlying model. Other objects are returned as
+	 * they are.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T detach(T model) {
+		LazyModel lazy = handler(model);
+		if (lazy == null) {
+			return model;
+		}
+		lazy.materialize();
+		Map<String, Object> embedded = new HashMap<>();
+		for (Map.Entry<String, Object> property : lazy.target.getProperties().entrySet()) {
+			if (handler(property.getValue()) != null) {
+				embedded.put(property.getKey(), detach(property.getValue()));
+			}
+		}
+		for (Map.Entry<String, Object> property : embedded.entrySet()) {
+			lazy.target.setProperty(property.getKey(), property.getValue());
+		}
+		return (T) lazy.target;
+	}
+
+	/**
+	 * @return the class of the underlying model of a lazy model, the class of
+	 *         any other object
+	 */
+	static Class<?> modelClass(Object model) {
+		LazyModel lazy = handler(model);
+		return lazy == null ? model.getClass() : lazy.target.getClass();
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		int arity = args == null ? 0 : args.length;
+		if (name.equals("getProperty") && arity == 1 && args[0] instanceof String) {
+			load((String) args[0]);
+		} else if (name.equals("setProperty") && arity == 2 && args[0] instanceof String) {
+			// a value set by the caller wins over the stored one
+			if (loaded != null) {
+				loaded.add((String) args[0]);
+			}
+		} else {
+			materialize();
+			if (name.equals("equals") && arity == 1) {
+				return proxy == args[0] || target.equals(unwrap(args[0]));
+			}
+		}
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private void load(String field) {
+		if (doc != null && loaded.add(field) && doc.containsField(field)) {
+			DocumentMapper.read(target, field, loader.apply(doc, field), embedded);
+		}
+	}
+
+	private void materialize() {
+		if (doc == null) {
+			return;
+		}
+		for (String field : doc.fieldNames()) {
+			load(field);
+		}
+		doc = null;
+		loaded = null;
+	}
+
+	private static LazyModel handler(Object model) {
+		if (model == null || !Proxy.isProxyClass(model.getClass())) {
+			return null;
+		}
+		InvocationHandler handler = Proxy.getInvocationHandler(model);
+		return handler instanceof LazyModel ? (LazyModel) handler : null;
+	}
+
+	private static Object unwrap(Object model) {
+		LazyModel lazy = handler(model);
+		if (lazy == null) {
+			return model;
+		}
+		lazy.materialize();
+		return lazy.target;
+	}
+
+}
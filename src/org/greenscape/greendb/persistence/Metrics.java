@@ -0,0 +1,164 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.greenscape.greendb.persistence.api.OperationStatistics;
+import org.greenscape.greendb.persistence.api.PersistenceMetrics;
+import org.greenscape.persistence.annotations.Model;
+
+/**
+ * Lock free recorder behind {@link PersistenceMetrics}. Recording a call does
+ * not allocate once the model has been seen; when disabled it costs a field
+ * read.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class Metrics implements PersistenceMetrics {
+
+	private static final Operation[] OPERATIONS = Operation.values();
+	private static final ClassValue<String> MODEL_NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			Model model = type.getAnnotation(Model.class);
+			if (model == null) {
+				return ANY_MODEL;
+			}
+			return model.name() == null || model.name().isEmpty() ? type.getSimpleName() : model.name();
+		}
+	};
+
+	private final boolean enabled;
+	private final Map<String, Recorder[]> models = new ConcurrentHashMap<>();
+
+	Metrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the start time of a call to pass to
+	 *         {@link #record(String, Operation, long, long)}
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	void record(String modelName, Operation operation, long start, long rows) {
+		if (enabled) {
+			recorder(modelName, operation).record(System.nanoTime() - start, rows);
+		}
+	}
+
+	/**
+	 * Records a call on the model of the given class.
+	 */
+	void record(Class<?> modelClass, Operation operation, long start, long rows) {
+		if (enabled) {
+			String modelName = modelClass == null ? ANY_MODEL : MODEL_NAMES.get(modelClass);
+			recorder(modelName, operation).record(System.nanoTime() - start, rows);
+		}
+	}
+
+	/**
+	 * Counts the fields written to a document.
+	 */
+	void written(String modelName, Operation operation, int fields) {
+		if (enabled) {
+			recorder(modelName, operation).fields.add(fields);
+		}
+	}
+
+	/**
+	 * Counts a document turned into a model.
+	 */
+	void hydrated(String modelName, int fields) {
+		if (enabled && modelName != null) {
+			Recorder recorder = recorder(modelName, Operation.HYDRATE);
+			recorder.calls.increment();
+			recorder.rows.increment();
+			recorder.fields.add(fields);
+		}
+	}
+
+	@Override
+	public List<OperationStatistics> getStatistics() {
+		List<OperationStatistics> statistics = new ArrayList<>();
+		for (Map.Entry<String, Recorder[]> model : models.entrySet()) {
+			for (Operation operation : OPERATIONS) {
+				Recorder recorder = model.getValue()[operation.ordinal()];
+				if (recorder.calls.sum() > 0) {
+					statistics.add(recorder.snapshot(model.getKey(), operation));
+				}
+			}
+		}
+		return statistics;
+	}
+
+	@Override
+	public OperationStatistics getStatistics(String modelName, Operation operation) {
+		Recorder[] recorders = models.get(modelName);
+		if (recorders == null || recorders[operation.ordinal()].calls.sum() == 0) {
+			return null;
+		}
+		return recorders[operation.ordinal()].snapshot(modelName, operation);
+	}
+
+	@Override
+	public void reset() {
+		models.clear();
+	}
+
+	private Recorder recorder(String modelName, Operation operation) {
+		Recorder[] recorders = models.get(modelName);
+		if (recorders == null) {
+			recorders = models.computeIfAbsent(modelName, name -> {
+				Recorder[] created = new Recorder[OPERATIONS.length];
+				for (int i = 0; i < created.length; i++) {
+					created[i] = new Recorder();
+				}
+				return created;
+			});
+		}
+		return recorders[operation.ordinal()];
+	}
+
+	private static final class Recorder {
+		final LongAdder calls = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder fields = new LongAdder();
+		final LongAdder totalTime = new LongAdder();
+		final AtomicLong maxTime = new AtomicLong();
+		final AtomicLongArray histogram = new AtomicLongArray(64);
+
+		void record(long time, long rows) {
+			calls.increment();
+			this.rows.add(rows);
+			totalTime.add(time);
+			long max;
+			while (time > (max = maxTime.get()) && !maxTime.compareAndSet(max, time)) {
+				// retry
+			}
+			histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, time)));
+		}
+
+		OperationStatistics snapshot(String modelName, Operation operation) {
+			long[] buckets = new long[histogram.length()];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = histogram.get(i);
+			}
+			return new OperationStatistics(modelName, operation, calls.sum(), rows.sum(), fields.sum(),
+					totalTime.sum(), maxTime.get(), buckets);
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.greenscape.core.ModelResource;
+import org.greenscape.core.Resource;
+import org.greenscape.core.ResourceRegistry;
+import org.greenscape.core.ResourceType;
+import org.greenscape.persistence.PersistedModelBase;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Index of model name to model class, built from the models registered in the
+ * {@link ResourceRegistry}. Names are matched case-insensitively, the same way
+ * OrientDB matches class names. The index is dropped whenever the registry is
+ * replaced or a bundle changes state, so classes of refreshed or uninstalled
+ * bundles are not kept alive.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class ModelClassIndex implements BundleListener {
+
+	/** Marks names that are not registered as a model. */
+	private static final Class<?> NO_MODEL = Void.class;
+
+	private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+	private volatile BundleContext context;
+	private volatile ResourceRegistry resourceRegistry;
+	private volatile boolean indexed;
+
+	void open(BundleContext context) {
+		this.context = context;
+		context.addBundleListener(this);
+		invalidate();
+	}
+
+	void close() {
+		BundleContext context = this.context;
+		if (context != null) {
+			context.removeBundleListener(this);
+		}
+		this.context = null;
+		invalidate();
+	}
+
+	void setResourceRegistry(ResourceRegistry resourceRegistry) {
+		this.resourceRegistry = resourceRegistry;
+		invalidate();
+	}
+
+	/**
+	 * @return the class of a registered model, {@link PersistedModelBase} if
+	 *         the model has no class of its own
+	 * @throws RuntimeException
+	 *             if no model with that name is registered
+	 */
+	Class<?> getModelClass(String modelName) {
+		Class<?> clazz = findModelClass(modelName);
+		if (clazz == null) {
+			throw new RuntimeException("No model with name `" + modelName + "` exists");
+		}
+		return clazz;
+	}
+
+	/**
+	 * @return the class of a registered model, {@link PersistedModelBase} if
+	 *         the model has no class of its own, or <code>null</code> if no
+	 *         model with that name is registered
+	 */
+	Class<?> findModelClass(String modelName) {
+		if (modelName == null) {
+			return null;
+		}
+		String key = modelName.toLowerCase();
+		Class<?> clazz = classes.get(key);
+		if (clazz == null) {
+			clazz = resolve(modelName, key);
+		}
+		return clazz == NO_MODEL ? null : clazz;
+	}
+
+	void invalidate() {
+		indexed = false;
+		for (Class<?> clazz : classes.values()) {
+			if (clazz != NO_MODEL) {
+				ModelFactory.discard(clazz);
+			}
+		}
+		classes.clear();
+	}
+
+	@Override
+	public void bundleChanged(BundleEvent event) {
+		switch (event.getType()) {
+		case BundleEvent.STARTED:
+		case BundleEvent.STOPPED:
+		case BundleEvent.UPDATED:
+		case BundleEvent.UNRESOLVED:
+		case BundleEvent.UNINSTALLED:
+			invalidate();
+			break;
+		default:
+			break;
+		}
+	}
+
+	private synchronized Class<?> resolve(String modelName, String key) {
+		Class<?> clazz = classes.get(key);
+		if (clazz != null) {
+			return clazz;
+		}
+		ResourceRegistry registry = resourceRegistry;
+		if (registry == null) {
+			throw new IllegalStateException("No ResourceRegistry available");
+		}
+		if (!indexed) {
+			for (Resource resource : registry.getResources(ResourceType.Model)) {
+				ModelResource modelResource = (ModelResource) resource;
+				classes.putIfAbsent(modelResource.getName().toLowerCase(), loadClass(modelResource));
+			}
+			indexed = true;
+			clazz = classes.get(key);
+		}
+		if (clazz == null) {
+			// registered after the index was built
+			Resource resource = registry.getResource(modelName);
+			clazz = resource instanceof ModelResource ? loadClass((ModelResource) resource) : NO_MODEL;
+			classes.put(key, clazz);
+		}
+		return clazz;
+	}
+
+	private Class<?> loadClass(ModelResource modelResource) {
+		if (modelResource.getModelClass() == null) {
+			return PersistedModelBase.class;
+		}
+		BundleContext context = this.context;
+		Bundle bundle = context == null ? null : context.getBundle(modelResource.getBundleId());
+		if (bundle == null) {
+			throw new RuntimeException("Bundle " + modelResource.getBundleId() + " of model "
+					+ modelResource.getName() + " is not available");
+		}
+		try {
+			return bundle.loadClass(modelResource.getModelClass());
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.greenscape.greendb.persistence;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
+
+/**
+ * Creates model instances through a constructor {@link Supplier} generated
+ * once per model class, instead of reflective <code>Class.newInstance()</code>
+ * calls.
+ * <p>
+ * The supplier is spun with {@link LambdaMetafactory}. The generated class is
+ * resolved against this bundle's class loader, which cannot see model classes
+ * of bundles that this bundle does not import. Those are detected up front by
+ * resolving the model type against that class loader, and their supplier
+ * invokes the constructor {@link MethodHandle} directly. Suppliers are kept in
+ * a {@link ClassValue}, so they become unreachable together with the model
+ * class when its bundle is uninstalled or refreshed.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+final class ModelFactory {
+
+	private static final MethodType SUPPLIER_FACTORY_TYPE = MethodType.methodType(Supplier.class);
+	private static final MethodType SUPPLIER_ERASED_TYPE = MethodType.methodType(Object.class);
+	private static final MethodType NO_ARGS_CONSTRUCTOR = MethodType.methodType(void.class);
+
+	private static final ClassValue<Supplier<?>> suppliers = new ClassValue<Supplier<?>>() {
+		@Override
+		protected Supplier<?> computeValue(Class<?> type) {
+			return createSupplier(type);
+		}
+	};
+
+	private ModelFactory() {
+	}
+
+	/**
+	 * @return a new instance of the model class
+	 * @throws RuntimeException
+	 *             if the class has no accessible no-argument constructor or the
+	 *             constructor fails
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T newInstance(Class<?> clazz) {
+		return (T) suppliers.get(clazz).get();
+	}
+
+	/**
+	 * Drops the cached supplier of a model class.
+	 */
+	static void discard(Class<?> clazz) {
+		suppliers.remove(clazz);
+	}
+
+	private static Supplier<?> createSupplier(Class<?> type) {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle constructor;
+		try {
+			constructor = lookup.findConstructor(type, NO_ARGS_CONSTRUCTOR);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return () -> {
+				throw new RuntimeException("Cannot instantiate model class " + type.getName(), e);
+			};
+		}
+		MethodType instantiatedType = MethodType.methodType(type);
+		if (isVisible(instantiatedType)) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(lookup, "get", SUPPLIER_FACTORY_TYPE,
+						SUPPLIER_ERASED_TYPE, constructor, instantiatedType);
+				return (Supplier<?>) site.getTarget().invokeExact();
+			} catch (Throwable e) {
+				// fall back to the constructor handle
+			}
+		}
+		MethodHandle handle = constructor.asType(SUPPLIER_ERASED_TYPE);
+		return () -> {
+			try {
+				return handle.invokeExact();
+			} catch (RuntimeException | Error ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException("Cannot instantiate model class " + type.getName(), ex);
+			}
+		};
+	}
+
+	/**
+	 * Resolves the descriptor of a type against this bundle's class loader,
+	 * the way the class generated by {@link LambdaMetafactory} will, without
+	 * running the model constructor.
+	 *
+	 * @return <code>true</code> if the type resolves to the same classes
+	 */
+	private static boolean isVisible(MethodType type) {
+		try {
+			return type.equals(MethodType.fromMethodDescriptorString(type.toMethodDescriptorString(),
+					ModelFactory.class.getClassLoader()));
+		} catch (TypeNotPresentException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+}
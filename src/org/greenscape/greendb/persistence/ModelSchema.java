@@ -0,0 +1,290 @@
+package org.greenscape.greendb.persistence;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.greenscape.persistence.DocumentModel;
+import org.greenscape.persistence.PersistedModelBase;
+import org.osgi.service.log.LogService;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Declares the properties of a model class in the OrientDB schema. The
+ * properties are the bean properties of the model class below
+ * {@link PersistedModelBase}, typed after their getter. A property holding a
+ * {@link DocumentModel} is declared as embedded in a class named after the
+ * property, which is declared the same way.
+ * <p>
+ * Classes that already hold records are migrated in place: stored values are
+ * converted to the declared type before the property is created. A property
+ * whose values cannot be converted, or that is declared already with another
+ * type, is left alone and logged.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class ModelSchema {
+
+	enum Mode {
+		/** No declared properties, every record carries its own field types. */
+		SCHEMALESS,
+		/** Declared properties, records may hold other fields as well. */
+		HYBRID,
+		/** Declared properties only, the class is strict. */
+		FULL
+	}
+
+	/**
+	 * Bean properties that are not stored as a field of their own, or that are
+	 * declared by <code>addModel</code>. The record id properties are never
+	 * stored, see {@link DocumentMapper}.
+	 */
+	private static final Set<String> RESERVED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("class",
+			"properties", DocumentMapper.ID_FIELD, DocumentModel.ID, DocumentModel.MODEL_ID)));
+
+	private static final ClassValue<Collection<Property>> properties = new ClassValue<Collection<Property>>() {
+		@Override
+		protected Collection<Property> computeValue(Class<?> type) {
+			return derive(type);
+		}
+	};
+
+	private final Mode mode;
+
+	ModelSchema(Mode mode) {
+		this.mode = mode;
+	}
+
+	static Mode parseMode(String mode) {
+		try {
+			return Mode.valueOf(mode.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Unknown schema mode " + mode + ", expected one of "
+					+ Arrays.toString(Mode.values()));
+		}
+	}
+
+	/**
+	 * Declares the properties of the model class on its OrientDB class. Does
+	 * nothing for models without a class of their own. Must not run inside a
+	 * transaction.
+	 *
+	 * @param log
+	 *            may be <code>null</code>
+	 */
+	void declare(ODatabaseDocument db, OClass cls, Class<?> modelClass, LogService log) {
+		if (mode == Mode.SCHEMALESS || modelClass == PersistedModelBase.class) {
+			return;
+		}
+		Set<String> declared = new HashSet<>();
+		declared.add(cls.getName().toLowerCase());
+		declare(db, db.getMetadata().getSchema(), cls, modelClass, declared, log);
+	}
+
+	private void declare(ODatabaseDocument db, OSchema schema, OClass cls, Class<?> modelClass,
+			Set<String> declared, LogService log) {
+		List<Property> missing = new ArrayList<>();
+		for (Property property : properties.get(modelClass)) {
+			OProperty existing = cls.getProperty(property.name);
+			if (existing == null) {
+				missing.add(property);
+			} else if (existing.getType() != property.type && log != null) {
+				log.log(LogService.LOG_WARNING, "Property " + cls.getName() + "." + property.name
+						+ " is declared as " + existing.getType() + ", not as " + property.type);
+			}
+		}
+		for (Property property : migrate(db, cls, missing, log)) {
+			if (property.embeddedClass != null) {
+				String name = property.name.toLowerCase();
+				OClass embedded = schema.getClass(name);
+				if (embedded == null) {
+					embedded = schema.createClass(name);
+				}
+				if (declared.add(name)) {
+					declare(db, schema, embedded, property.embeddedClass, declared, log);
+				}
+				cls.createProperty(property.name, property.type, embedded);
+			} else if (property.linkedType != null) {
+				cls.createProperty(property.name, property.type, property.linkedType);
+			} else {
+				cls.createProperty(property.name, property.type);
+			}
+		}
+		if (mode == Mode.FULL && !cls.isStrictMode()) {
+			cls.setStrictMode(true);
+		}
+	}
+
+	/**
+	 * Converts the stored values of the properties to their declared type.
+	 *
+	 * @return the properties whose values all have the declared type now
+	 */
+	private Collection<Property> migrate(ODatabaseDocument db, OClass cls, List<Property> properties,
+			LogService log) {
+		if (properties.isEmpty() || cls.count(false) == 0) {
+			return properties;
+		}
+		Map<String, Property> convertible = new LinkedHashMap<>();
+		for (Property property : properties) {
+			convertible.put(property.name, property);
+		}
+		int records = 0;
+		for (ODocument doc : db.browseClass(cls.getName(), false)) {
+			boolean dirty = false;
+			for (Property property : convertible.values().toArray(new Property[convertible.size()])) {
+				Object value = doc.field(property.name);
+				if (value == null || !property.isScalar()
+						|| OType.getTypeByClass(value.getClass()) == property.type) {
+					continue;
+				}
+				Object converted;
+				try {
+					converted = OType.convert(value, property.type.getDefaultJavaType());
+				} catch (RuntimeException e) {
+					converted = null;
+				}
+				if (converted == null) {
+					convertible.remove(property.name);
+					if (log != null) {
+						log.log(LogService.LOG_WARNING, "Cannot declare " + cls.getName() + "." + property.name
+								+ " as " + property.type + ", record " + doc.getIdentity() + " holds " + value);
+					}
+				} else {
+					doc.field(property.name, converted);
+					dirty = true;
+				}
+			}
+			if (dirty) {
+				doc.save();
+				records++;
+			}
+		}
+		if (records > 0 && log != null) {
+			log.log(LogService.LOG_INFO, "Converted " + records + " records of " + cls.getName()
+					+ " to the declared property types");
+		}
+		return convertible.values();
+	}
+
+	private static Collection<Property> derive(Class<?> clazz) {
+		if (!DocumentModel.class.isAssignableFrom(clazz) || clazz == PersistedModelBase.class) {
+			return Collections.emptyList();
+		}
+		Class<?> stopClass = PersistedModelBase.class.isAssignableFrom(clazz) ? PersistedModelBase.class
+				: Object.class;
+		BeanInfo info;
+		try {
+			info = Introspector.getBeanInfo(clazz, stopClass);
+		} catch (IntrospectionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			// the introspector would otherwise keep the class of a refreshed bundle
+			Introspector.flushFromCaches(clazz);
+		}
+		List<Property> list = new ArrayList<>();
+		for (PropertyDescriptor descriptor : info.getPropertyDescriptors()) {
+			Method getter = descriptor.getReadMethod();
+			if (getter == null || RESERVED.contains(descriptor.getName())) {
+				continue;
+			}
+			Property property = property(descriptor.getName(), getter.getGenericReturnType());
+			if (property != null) {
+				list.add(property);
+			}
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return the declaration of a property of the given Java type, or
+	 *         <code>null</code> if the type has no OrientDB counterpart
+	 */
+	private static Property property(String name, Type type) {
+		Class<?> raw = raw(type);
+		if (raw == null || raw == Object.class) {
+			return null;
+		}
+		if (DocumentModel.class.isAssignableFrom(raw)) {
+			return new Property(name, OType.EMBEDDED, null, raw);
+		}
+		if (List.class.isAssignableFrom(raw)) {
+			return new Property(name, OType.EMBEDDEDLIST, linkedType(type, 0), null);
+		}
+		if (Set.class.isAssignableFrom(raw)) {
+			return new Property(name, OType.EMBEDDEDSET, linkedType(type, 0), null);
+		}
+		if (Map.class.isAssignableFrom(raw)) {
+			return new Property(name, OType.EMBEDDEDMAP, linkedType(type, 1), null);
+		}
+		OType otype = OType.getTypeByClass(raw);
+		return otype == null ? null : new Property(name, otype, null, null);
+	}
+
+	/**
+	 * @return the type of the elements of a collection or map, if it is a
+	 *         plain value
+	 */
+	private static OType linkedType(Type type, int argument) {
+		if (!(type instanceof ParameterizedType)) {
+			return null;
+		}
+		Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+		Class<?> element = arguments.length > argument ? raw(arguments[argument]) : null;
+		if (element == null || element == Object.class || DocumentModel.class.isAssignableFrom(element)
+				|| Collection.class.isAssignableFrom(element) || Map.class.isAssignableFrom(element)) {
+			return null;
+		}
+		return OType.getTypeByClass(element);
+	}
+
+	private static Class<?> raw(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return raw(((ParameterizedType) type).getRawType());
+		}
+		return null;
+	}
+
+	private static final class Property {
+		final String name;
+		final OType type;
+		final OType linkedType;
+		final Class<?> embeddedClass;
+
+		Property(String name, OType type, OType linkedType, Class<?> embeddedClass) {
+			this.name = name;
+			this.type = type;
+			this.linkedType = linkedType;
+			this.embeddedClass = embeddedClass;
+		}
+
+		boolean isScalar() {
+			return embeddedClass == null && type != OType.EMBEDDEDLIST && type != OType.EMBEDDEDSET
+					&& type != OType.EMBEDDEDMAP && type != OType.LINK;
+		}
+	}
+
+}
@@ -0,0 +1,338 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.greenscape.greendb.persistence.api.CacheStatistics;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * In-process cache of query results, keyed by model, normalized query text and
+ * bound parameters. Like the {@link EntityCache} it keeps its own copies of
+ * the documents and hands out fresh copies on every hit.
+ * <p>
+ * The cache is bounded by weight, the number of cached documents plus one per
+ * entry, and evicts least recently used entries first. Every entry remembers
+ * the models its query reads, i.e. its own model and the classes named after
+ * <code>from</code>, together with their write versions at the time the query
+ * started. Invalidating a model bumps its version, which turns all entries
+ * reading it into misses.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class ResultCache {
+
+	private static final Pattern FROM = Pattern.compile("\\bfrom\\s+([A-Za-z_][A-Za-z0-9_]*)",
+			Pattern.CASE_INSENSITIVE);
+	/** Number of queries with statistics of their own. */
+	private static final int MAX_QUERIES = 1024;
+
+	private final long maxWeight;
+	private final long timeToLive;
+	private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Long> versions = new HashMap<>();
+	private final Map<String, Counters> queries = new LinkedHashMap<String, Counters>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Counters> eldest) {
+			return size() > MAX_QUERIES;
+		}
+	};
+	private long version;
+	private long weight;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxWeight
+	 *            maximum number of cached documents
+	 * @param timeToLive
+	 *            milliseconds after which an entry expires
+	 */
+	ResultCache(long maxWeight, long timeToLive) {
+		this.maxWeight = maxWeight;
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * @param params
+	 *            named parameters, positional parameters as an array, or
+	 *            <code>null</code>
+	 */
+	Key key(String modelName, String query, Object params) {
+		String text = normalize(query);
+		Set<String> models = new LinkedHashSet<>();
+		models.add(modelName.toLowerCase());
+		Matcher matcher = FROM.matcher(text);
+		while (matcher.find()) {
+			models.add(matcher.group(1).toLowerCase());
+		}
+		return new Key(text, models.toArray(new String[models.size()]), freeze(params));
+	}
+
+	/**
+	 * @return an unmodifiable copy of the parameters, with maps, collections
+	 *         and arrays nested in them copied as well, so that the caller
+	 *         reusing them cannot change a key; arrays become lists
+	 */
+	private static Object freeze(Object value) {
+		if (value instanceof Map) {
+			Map<Object, Object> copy = new HashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), freeze(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+		if (value instanceof Collection) {
+			Collection<?> values = (Collection<?>) value;
+			List<Object> copy = new ArrayList<>(values.size());
+			for (Object element : values) {
+				copy.add(freeze(element));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		if (value instanceof Object[]) {
+			Object[] values = (Object[]) value;
+			List<Object> copy = new ArrayList<>(values.length);
+			for (Object element : values) {
+				copy.add(freeze(element));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		return value;
+	}
+
+	/**
+	 * @return copies of the cached documents, or <code>null</code>
+	 */
+	synchronized List<ODocument> get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry != null
+				&& (entry.expires <= System.currentTimeMillis() || !Arrays.equals(entry.stamp, stamp(key)))) {
+			remove(key, entry);
+			entry = null;
+		}
+		Counters counters = counters(key.query);
+		if (entry == null) {
+			misses++;
+			counters.misses++;
+			return null;
+		}
+		hits++;
+		counters.hits++;
+		List<ODocument> docs = new ArrayList<>(entry.docs.size());
+		for (ODocument doc : entry.docs) {
+			docs.add(doc.copy());
+		}
+		return docs;
+	}
+
+	/**
+	 * @return the versions of the models read by the query, to be passed to
+	 *         {@link #put(Key, long[], List)} once it ran
+	 */
+	synchronized long[] stamp(Key key) {
+		long[] stamp = new long[key.models.length + 1];
+		stamp[0] = version;
+		for (int i = 0; i < key.models.length; i++) {
+			Long modelVersion = versions.get(key.models[i]);
+			stamp[i + 1] = modelVersion == null ? 0 : modelVersion;
+		}
+		return stamp;
+	}
+
+	/**
+	 * Caches the result of a query, unless one of its models was written since
+	 * the stamp was taken.
+	 */
+	synchronized void put(Key key, long[] stamp, List<ODocument> docs) {
+		long entryWeight = docs.size() + 1;
+		if (entryWeight > maxWeight || !Arrays.equals(stamp, stamp(key))) {
+			return;
+		}
+		List<ODocument> copies = new ArrayList<>(docs.size());
+		for (ODocument doc : docs) {
+			copies.add(doc.copy());
+		}
+		Entry previous = entries.get(key);
+		if (previous != null) {
+			remove(key, previous);
+		}
+		entries.put(key, new Entry(copies, stamp, entryWeight, System.currentTimeMillis() + timeToLive));
+		weight += entryWeight;
+		counters(key.query).size++;
+		for (Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator(); weight > maxWeight
+				&& itr.hasNext();) {
+			Map.Entry<Key, Entry> eldest = itr.next();
+			itr.remove();
+			removed(eldest.getKey(), eldest.getValue());
+			evictions++;
+			counters(eldest.getKey().query).evictions++;
+		}
+	}
+
+	/**
+	 * Invalidates the results of all queries reading the model.
+	 */
+	synchronized void invalidate(String modelName) {
+		String model = modelName.toLowerCase();
+		Long modelVersion = versions.get(model);
+		versions.put(model, modelVersion == null ? 1 : modelVersion + 1);
+	}
+
+	/**
+	 * Invalidates all results.
+	 */
+	synchronized void clear() {
+		version++;
+		entries.clear();
+		weight = 0;
+		for (Counters counters : queries.values()) {
+			counters.size = 0;
+		}
+	}
+
+	synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(hits, misses, evictions, entries.size());
+	}
+
+	/**
+	 * @return the statistics of the most recently used queries, by normalized
+	 *         query text
+	 */
+	synchronized Map<String, CacheStatistics> getQueryStatistics() {
+		Map<String, CacheStatistics> statistics = new LinkedHashMap<>();
+		for (Map.Entry<String, Counters> query : queries.entrySet()) {
+			Counters counters = query.getValue();
+			statistics.put(query.getKey(), new CacheStatistics(counters.hits, counters.misses, counters.evictions,
+					counters.size));
+		}
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	private void remove(Key key, Entry entry) {
+		entries.remove(key);
+		removed(key, entry);
+	}
+
+	private void removed(Key key, Entry entry) {
+		weight -= entry.weight;
+		Counters counters = queries.get(key.query);
+		if (counters != null && counters.size > 0) {
+			counters.size--;
+		}
+	}
+
+	private Counters counters(String query) {
+		Counters counters = queries.get(query);
+		if (counters == null) {
+			counters = new Counters();
+			queries.put(query, counters);
+		}
+		return counters;
+	}
+
+	/**
+	 * Collapses whitespace outside of string literals, so that the same query
+	 * written over several lines or with different indentation shares an
+	 * entry.
+	 */
+	static String normalize(String query) {
+		StringBuilder text = new StringBuilder(query.length());
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (quote != 0) {
+				text.append(c);
+				if (c == '\\' && i + 1 < query.length()) {
+					text.append(query.charAt(++i));
+				} else if (c == quote) {
+					quote = 0;
+				}
+			} else if (Character.isWhitespace(c)) {
+				space = text.length() > 0;
+			} else {
+				if (space) {
+					text.append(' ');
+					space = false;
+				}
+				if (c == '\'' || c == '"') {
+					quote = c;
+				}
+				text.append(c);
+			}
+		}
+		return text.toString();
+	}
+
+	static final class Key {
+		final String query;
+		final String[] models;
+		final Object params;
+		private final int hash;
+
+		Key(String query, String[] models, Object params) {
+			this.query = query;
+			this.models = models;
+			this.params = params;
+			this.hash = 31 * (31 * query.hashCode() + models[0].hashCode()) + (params == null ? 0 : params
+					.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && query.equals(other.query) && models[0].equals(other.models[0])
+					&& (params == null ? other.params == null : params.equals(other.params));
+		}
+	}
+
+	private static final class Entry {
+		final List<ODocument> docs;
+		final long[] stamp;
+		final long weight;
+		final long expires;
+
+		Entry(List<ODocument> docs, long[] stamp, long weight, long expires) {
+			this.docs = docs;
+			this.stamp = stamp;
+			this.weight = weight;
+			this.expires = expires;
+		}
+	}
+
+	private static final class Counters {
+		long hits;
+		long misses;
+		long evictions;
+		long size;
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.greenscape.greendb.persistence.api.SlowQuery;
+import org.greenscape.greendb.persistence.api.SlowQueryLog;
+
+/**
+ * Ring buffer behind {@link SlowQueryLog}. Once full, every new slow query
+ * replaces the oldest one.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class SlowQueryRecorder implements SlowQueryLog {
+
+	private static final String REDACTED = "?";
+
+	private final long threshold;
+	private final long thresholdNanos;
+	private final boolean redact;
+	private final boolean explain;
+	private final SlowQuery[] queries;
+	private int next;
+	private int size;
+
+	/**
+	 * @param threshold
+	 *            milliseconds from which a query is slow
+	 * @param size
+	 *            number of queries kept, at least one
+	 * @param redact
+	 *            do not keep parameter values
+	 * @param explain
+	 *            capture the execution plan of slow queries
+	 */
+	SlowQueryRecorder(long threshold, int size, boolean redact, boolean explain) {
+		this.threshold = threshold;
+		if (size < 1) {
+			throw new IllegalArgumentException("Slow query log size must be positive: " + size);
+		}
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+		this.redact = redact;
+		this.explain = explain;
+		this.queries = new SlowQuery[size];
+	}
+
+	boolean isSlow(long time) {
+		return time >= thresholdNanos;
+	}
+
+	boolean isExplain() {
+		return explain;
+	}
+
+	/**
+	 * @param params
+	 *            named parameters as a {@link Map}, positional ones as an
+	 *            array, or <code>null</code>
+	 * @param timestamp
+	 *            when the call finished, in milliseconds since the epoch
+	 */
+	void record(String query, Object params, int rows, long time, long timestamp, String plan) {
+		SlowQuery slowQuery = new SlowQuery(query, parameters(params), rows, time, timestamp, plan);
+		synchronized (queries) {
+			queries[next] = slowQuery;
+			next = (next + 1) % queries.length;
+			size = Math.min(size + 1, queries.length);
+		}
+	}
+
+	@Override
+	public List<SlowQuery> getSlowQueries() {
+		synchronized (queries) {
+			List<SlowQuery> list = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(queries[(next - size + i + queries.length) % queries.length]);
+			}
+			return list;
+		}
+	}
+
+	@Override
+	public long getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public void clear() {
+		synchronized (queries) {
+			Arrays.fill(queries, null);
+			next = 0;
+			size = 0;
+		}
+	}
+
+	private Map<String, Object> parameters(Object params) {
+		if (params == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		if (params instanceof Map) {
+			for (Map.Entry<?, ?> param : ((Map<?, ?>) params).entrySet()) {
+				parameters.put(String.valueOf(param.getKey()), redact ? REDACTED : param.getValue());
+			}
+		} else {
+			Object[] values = (Object[]) params;
+			for (int i = 0; i < values.length; i++) {
+				parameters.put(String.valueOf(i), redact ? REDACTED : values[i]);
+			}
+		}
+		return parameters;
+	}
+
+}
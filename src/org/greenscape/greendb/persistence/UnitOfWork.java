@@ -0,0 +1,135 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenscape.persistence.DocumentModel;
+
+/**
+ * The models read and written by a transaction while
+ * <code>unitOfWork.enabled</code> is set. Models are mapped by record id, so
+ * reading a record twice yields the same instance. Writes are queued per
+ * model instance and merged: an update of a model that is still to be
+ * inserted or updated is dropped, a model inserted and removed again is not
+ * written at all.
+ * <p>
+ * Queued writes are handed out by {@link #drain()}, removals before inserts
+ * before updates, so a model id freed by a removal can be taken by an insert
+ * of the same unit of work without violating the unique index on it. Not
+ * thread safe; a unit of work belongs to the thread holding the transaction.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+final class UnitOfWork {
+
+	enum Action {
+		INSERT, UPDATE, DELETE
+	}
+
+	private static final Action[] FLUSH_ORDER = { Action.DELETE, Action.INSERT, Action.UPDATE };
+
+	static final class Pending {
+		final DocumentModel model;
+		final String modelName;
+		Action action;
+
+		Pending(DocumentModel model, String modelName, Action action) {
+			this.model = model;
+			this.modelName = modelName;
+			this.action = action;
+		}
+	}
+
+	private final Map<String, DocumentModel> identities = new HashMap<>();
+	private final Map<DocumentModel, Pending> pending = new IdentityHashMap<>();
+	private final List<Pending> queue = new ArrayList<>();
+
+	/**
+	 * @return the model read or written earlier with this record id, or
+	 *         <code>null</code>
+	 */
+	DocumentModel get(String rid) {
+		return identities.get(rid);
+	}
+
+	void put(String rid, DocumentModel model) {
+		identities.put(rid, model);
+	}
+
+	/**
+	 * @throws RuntimeException
+	 *             if the model was already updated or removed in this unit of
+	 *             work
+	 */
+	void save(String modelName, DocumentModel model) {
+		Pending current = pending.get(model);
+		if (current == null) {
+			enqueue(model, modelName, Action.INSERT);
+		} else if (current.action != Action.INSERT) {
+			throw new RuntimeException("Model is already persistent in this unit of work");
+		}
+	}
+
+	/**
+	 * @throws RuntimeException
+	 *             if the model was removed in this unit of work
+	 */
+	void update(String modelName, DocumentModel model) {
+		Pending current = pending.get(model);
+		if (current == null) {
+			enqueue(model, modelName, Action.UPDATE);
+		} else if (current.action == Action.DELETE) {
+			throw new RuntimeException("Model was removed in this unit of work");
+		}
+	}
+
+	void remove(String modelName, DocumentModel model, String rid) {
+		if (rid != null) {
+			identities.remove(rid);
+		}
+		Pending current = pending.get(model);
+		if (current == null) {
+			enqueue(model, modelName, Action.DELETE);
+		} else if (current.action == Action.INSERT) {
+			// never written, nothing to remove
+			pending.remove(model);
+			current.action = null;
+		} else {
+			current.action = Action.DELETE;
+		}
+	}
+
+	boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Removes the queued writes.
+	 *
+	 * @return the writes to apply, in the order to apply them
+	 */
+	List<Pending> drain() {
+		List<Pending> writes = new ArrayList<>(pending.size());
+		for (Action action : FLUSH_ORDER) {
+			for (Pending write : queue) {
+				if (write.action == action) {
+					writes.add(write);
+				}
+			}
+		}
+		pending.clear();
+		queue.clear();
+		return writes;
+	}
+
+	private void enqueue(DocumentModel model, String modelName, Action action) {
+		Pending write = new Pending(model, modelName, action);
+		pending.put(model, write);
+		queue.add(write);
+	}
+
+}
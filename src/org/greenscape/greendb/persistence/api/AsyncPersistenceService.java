@@ -0,0 +1,75 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.greenscape.persistence.DocumentModel;
+
+/**
+ * Non-blocking companion of {@link GreenDBPersistenceService}. Every call runs
+ * on a worker thread with its own database binding and completes the returned
+ * future with the result or the failure. Independent calls run concurrently,
+ * provided the persistence service pools its database handles.
+ * <p>
+ * Calls do not take part in a transaction started with
+ * {@link GreenDBPersistenceService#begin()} on the calling thread.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public interface AsyncPersistenceService {
+
+	<T> CompletableFuture<T> save(T object);
+
+	<T> CompletableFuture<T> save(String modelName, T object);
+
+	/**
+	 * Saves the models in batches like {@link GreenDBPersistenceService#save(Collection)};
+	 * the future fails with a {@link BatchException} if any batch failed.
+	 */
+	<T> CompletableFuture<Void> save(Collection<T> objects);
+
+	<T> CompletableFuture<T> update(T object);
+
+	<T> CompletableFuture<T> update(String modelName, T object);
+
+	<T> CompletableFuture<T> saveOrUpdate(T object);
+
+	/**
+	 * Upserts the models in batches like
+	 * {@link GreenDBPersistenceService#saveOrUpdate(Collection)}; the future
+	 * fails with a {@link BatchException} if any batch failed.
+	 */
+	<T> CompletableFuture<Void> saveOrUpdate(Collection<T> objects);
+
+	<T> CompletableFuture<Void> remove(T object);
+
+	<T extends DocumentModel> CompletableFuture<List<T>> find(String modelName);
+
+	<T extends DocumentModel> CompletableFuture<List<T>> find(Class<T> clazz);
+
+	<T> CompletableFuture<T> find(String modelName, Object id);
+
+	<T> CompletableFuture<T> findByModelId(String modelName, String modelId);
+
+	<T> CompletableFuture<T> findById(Class<T> clazz, String modelId);
+
+	<T> CompletableFuture<List<T>> findByProperty(String modelName, String propertyName, Object value);
+
+	<T> CompletableFuture<List<T>> findByProperty(Class<T> clazz, String propertyName, Object value);
+
+	<T extends DocumentModel> CompletableFuture<List<T>> findByProperties(String modelName,
+			Map<String, Object> properties);
+
+	<T> CompletableFuture<List<T>> findByProperties(Class<T> clazz, Map<String, Object> properties);
+
+	<T extends DocumentModel> CompletableFuture<List<T>> executeQuery(String modelName, String query,
+			Map<String, Object> params);
+
+	<T> CompletableFuture<List<T>> executeQuery(Class<T> clazz, String query, Map<String, Object> params);
+
+	CompletableFuture<Object> executeUpdate(String query);
+
+}
@@ -0,0 +1,39 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * Thrown after a batched write finished with one or more failed batches. The
+ * batches that were committed stay committed.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class BatchException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final BatchResult result;
+
+	/**
+	 * @see #BatchException(String, BatchResult)
+	 */
+	public BatchException(BatchResult result) {
+		this("saved", result);
+	}
+
+	/**
+	 * @param operation
+	 *            what failed to happen to the models, e.g.
+	 *            <code>removed</code>, for the message
+	 */
+	public BatchException(String operation, BatchResult result) {
+		super(result.getFailed() + " of " + (result.getSucceeded() + result.getFailed()) + " models could not be "
+				+ operation + " in " + result.getFailures().size() + " failed batch(es)", result.getFailures()
+				.isEmpty() ? null : result.getFailures().get(0).getCause());
+		this.result = result;
+	}
+
+	public BatchResult getResult() {
+		return result;
+	}
+
+}
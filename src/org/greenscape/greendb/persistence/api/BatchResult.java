@@ -0,0 +1,107 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batched write. Every batch is committed in its own
+ * transaction, so a failed batch is rolled back without affecting the
+ * batches before or after it.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class BatchResult {
+
+	private int batches;
+	private int succeeded;
+	private final List<Failure> failures = new ArrayList<>();
+
+	public void addSuccess(int count) {
+		batches++;
+		succeeded += count;
+	}
+
+	public void addFailure(int offset, int count, Throwable cause) {
+		batches++;
+		failures.add(new Failure(offset, count, cause));
+	}
+
+	/**
+	 * @return number of batches that were attempted
+	 */
+	public int getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @return number of models written by committed batches
+	 */
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	/**
+	 * @return number of models in batches that were rolled back
+	 */
+	public int getFailed() {
+		int failed = 0;
+		for (Failure failure : failures) {
+			failed += failure.getCount();
+		}
+		return failed;
+	}
+
+	public List<Failure> getFailures() {
+		return Collections.unmodifiableList(failures);
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult [batches=" + batches + ", succeeded=" + succeeded + ", failed=" + getFailed() + "]";
+	}
+
+	/**
+	 * A batch that was rolled back.
+	 */
+	public static class Failure {
+		private final int offset;
+		private final int count;
+		private final Throwable cause;
+
+		public Failure(int offset, int count, Throwable cause) {
+			this.offset = offset;
+			this.count = count;
+			this.cause = cause;
+		}
+
+		/**
+		 * @return index of the first model of the batch in the input
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return number of models in the batch
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		public Throwable getCause() {
+			return cause;
+		}
+
+		@Override
+		public String toString() {
+			return "Failure [offset=" + offset + ", count=" + count + ", cause=" + cause + "]";
+		}
+	}
+
+}
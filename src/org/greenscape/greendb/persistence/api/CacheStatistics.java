@@ -0,0 +1,56 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * Point in time counters of a cache.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long size;
+
+	public CacheStatistics(long hits, long misses, long evictions, long size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of entries currently cached
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return hits divided by lookups, or 0 if there were no lookups
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size="
+				+ size + "]";
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * A model inserted, updated or removed through GreenDB.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ChangeEvent<T> {
+
+	public enum Type {
+		INSERT, UPDATE, DELETE
+	}
+
+	private final Type type;
+	private final String modelName;
+	private final String recordId;
+	private final T model;
+	private final long dropped;
+
+	public ChangeEvent(Type type, String modelName, String recordId, T model, long dropped) {
+		this.type = type;
+		this.modelName = modelName;
+		this.recordId = recordId;
+		this.model = model;
+		this.dropped = dropped;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	public String getRecordId() {
+		return recordId;
+	}
+
+	/**
+	 * @return the model as written; for {@link Type#DELETE} the state it had
+	 *         when it was removed
+	 */
+	public T getModel() {
+		return model;
+	}
+
+	/**
+	 * @return number of events dropped right before this one because the
+	 *         subscriber's buffer was full; a subscriber that must not miss a
+	 *         change should read the model again if this is not zero
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public String toString() {
+		return "ChangeEvent [type=" + type + ", modelName=" + modelName + ", recordId=" + recordId + ", dropped="
+				+ dropped + "]";
+	}
+
+}
@@ -0,0 +1,24 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * Receives the changes of a model, see
+ * {@link GreenDBPersistenceService#subscribe(String, ChangeListener)}. Calls
+ * for one subscription are made one at a time, in the order the changes were
+ * committed.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@FunctionalInterface
+public interface ChangeListener<T> {
+
+	void onChange(ChangeEvent<T> event);
+
+	/**
+	 * Called once when the subscription ends, after the last
+	 * {@link #onChange(ChangeEvent)}.
+	 */
+	default void onClose() {
+	}
+
+}
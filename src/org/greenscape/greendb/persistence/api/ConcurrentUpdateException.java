@@ -0,0 +1,34 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * Thrown when an update is based on a version of a record that has been
+ * changed since the model was read.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ConcurrentUpdateException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String recordId;
+	private final int version;
+
+	public ConcurrentUpdateException(String recordId, int version) {
+		super("Record " + recordId + " was modified after version " + version + " was read");
+		this.recordId = recordId;
+		this.version = version;
+	}
+
+	public String getRecordId() {
+		return recordId;
+	}
+
+	/**
+	 * @return the version the update was based on
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+}
@@ -0,0 +1,279 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.greenscape.persistence.annotations.Model;
+
+/**
+ * A query on one model, built from predicates that are combined with
+ * <code>and</code>. Values are never part of the generated SQL; they are
+ * bound as parameters, so criteria that differ only in their values share one
+ * compiled statement.
+ *
+ * <pre>
+ * Criteria&lt;Order&gt; criteria = Criteria.from(Order.class).eq(&quot;status&quot;, &quot;open&quot;)
+ * 		.between(&quot;total&quot;, 100, 500).orderBy(&quot;created&quot;, false).limit(50);
+ * List&lt;Order&gt; orders = persistence.find(criteria);
+ * </pre>
+ *
+ * Criteria are not thread safe; build them on the thread that runs them.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public final class Criteria<T> {
+
+	private static final Pattern PROPERTY = Pattern
+			.compile("@?[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
+	/**
+	 * Comparison operators and the SQL they compile to.
+	 */
+	public enum Operator {
+		EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">="), LIKE("like"), IN("in"), BETWEEN("between"), IS_NULL(
+				"is null"), IS_NOT_NULL("is not null");
+
+		private final String sql;
+
+		Operator(String sql) {
+			this.sql = sql;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * @return the number of values the operator takes
+		 */
+		public int getArity() {
+			switch (this) {
+			case IS_NULL:
+			case IS_NOT_NULL:
+				return 0;
+			case BETWEEN:
+				return 2;
+			default:
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * A condition on one property.
+	 */
+	public static final class Predicate {
+		private final String property;
+		private final Operator operator;
+		private final List<Object> values;
+
+		Predicate(String property, Operator operator, Object... values) {
+			this.property = property;
+			this.operator = operator;
+			this.values = Collections.unmodifiableList(Arrays.asList(values));
+		}
+
+		public String getProperty() {
+			return property;
+		}
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		public List<Object> getValues() {
+			return values;
+		}
+	}
+
+	/**
+	 * A sort key.
+	 */
+	public static final class Order {
+		private final String property;
+		private final boolean ascending;
+
+		Order(String property, boolean ascending) {
+			this.property = property;
+			this.ascending = ascending;
+		}
+
+		public String getProperty() {
+			return property;
+		}
+
+		public boolean isAscending() {
+			return ascending;
+		}
+	}
+
+	private final String modelName;
+	private final Class<T> modelClass;
+	private final List<Predicate> predicates = new ArrayList<>();
+	private final List<Order> order = new ArrayList<>();
+	private final List<String> projection = new ArrayList<>();
+	private int limit = -1;
+
+	private Criteria(String modelName, Class<T> modelClass) {
+		this.modelName = modelName;
+		this.modelClass = modelClass;
+	}
+
+	/**
+	 * Criteria on the models of the given name, hydrated as the class
+	 * registered for it.
+	 */
+	public static <T> Criteria<T> from(String modelName) {
+		if (modelName == null || modelName.isEmpty()) {
+			throw new IllegalArgumentException("No model name given");
+		}
+		return new Criteria<>(modelName, null);
+	}
+
+	public static <T> Criteria<T> from(Class<T> clazz) {
+		Model model = clazz.getAnnotation(Model.class);
+		if (model == null) {
+			throw new IllegalArgumentException("No Model annotation found on class " + clazz.getCanonicalName());
+		}
+		String modelName = model.name();
+		if (modelName == null || modelName.isEmpty()) {
+			modelName = clazz.getSimpleName();
+		}
+		return new Criteria<>(modelName, clazz);
+	}
+
+	public Criteria<T> eq(String property, Object value) {
+		return where(property, Operator.EQ, value);
+	}
+
+	public Criteria<T> ne(String property, Object value) {
+		return where(property, Operator.NE, value);
+	}
+
+	public Criteria<T> lt(String property, Object value) {
+		return where(property, Operator.LT, value);
+	}
+
+	public Criteria<T> le(String property, Object value) {
+		return where(property, Operator.LE, value);
+	}
+
+	public Criteria<T> gt(String property, Object value) {
+		return where(property, Operator.GT, value);
+	}
+
+	public Criteria<T> ge(String property, Object value) {
+		return where(property, Operator.GE, value);
+	}
+
+	/**
+	 * @param pattern
+	 *            an SQL like pattern, <code>%</code> matching any characters
+	 */
+	public Criteria<T> like(String property, String pattern) {
+		return where(property, Operator.LIKE, pattern);
+	}
+
+	public Criteria<T> in(String property, Collection<?> values) {
+		if (values == null) {
+			throw new IllegalArgumentException("No values given for " + property);
+		}
+		return where(property, Operator.IN, values);
+	}
+
+	/**
+	 * Matches values from <code>from</code> to <code>to</code>, both
+	 * inclusive.
+	 */
+	public Criteria<T> between(String property, Object from, Object to) {
+		return where(property, Operator.BETWEEN, from, to);
+	}
+
+	public Criteria<T> isNull(String property) {
+		return where(property, Operator.IS_NULL);
+	}
+
+	public Criteria<T> isNotNull(String property) {
+		return where(property, Operator.IS_NOT_NULL);
+	}
+
+	public Criteria<T> orderBy(String property, boolean ascending) {
+		order.add(new Order(checkProperty(property), ascending));
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            maximum number of results, <code>-1</code> for all
+	 */
+	public Criteria<T> limit(int limit) {
+		if (limit < -1 || limit == 0) {
+			throw new IllegalArgumentException("Invalid limit: " + limit);
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Reads only the given properties; the record id is always read. Models
+	 * hydrated from a projection hold only these properties.
+	 */
+	public Criteria<T> select(String... properties) {
+		for (String property : properties) {
+			projection.add(checkProperty(property));
+		}
+		return this;
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	/**
+	 * @return the class given to {@link #from(Class)}, or <code>null</code>
+	 */
+	public Class<T> getModelClass() {
+		return modelClass;
+	}
+
+	public List<Predicate> getPredicates() {
+		return Collections.unmodifiableList(predicates);
+	}
+
+	public List<Order> getOrder() {
+		return Collections.unmodifiableList(order);
+	}
+
+	/**
+	 * @return the projected properties, empty if whole models are read
+	 */
+	public List<String> getProjection() {
+		return Collections.unmodifiableList(projection);
+	}
+
+	/**
+	 * @return the maximum number of results, <code>-1</code> for all
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	private Criteria<T> where(String property, Operator operator, Object... values) {
+		predicates.add(new Predicate(checkProperty(property), operator, values));
+		return this;
+	}
+
+	private static String checkProperty(String property) {
+		// property names become part of the statement text
+		if (property == null || !PROPERTY.matcher(property).matches()) {
+			throw new IllegalArgumentException("Invalid property name: " + property);
+		}
+		return property;
+	}
+
+}
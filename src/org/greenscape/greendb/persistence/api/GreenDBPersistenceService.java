@@ -0,0 +1,325 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.greenscape.persistence.DocumentModel;
+import org.greenscape.persistence.PersistenceService;
+
+/**
+ * GreenDB specific extensions of the {@link PersistenceService}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public interface GreenDBPersistenceService extends PersistenceService {
+
+	/**
+	 * Saves the models in transactions of <code>batchSize</code> models each.
+	 * A failing batch is rolled back and reported in the result; the remaining
+	 * batches are still written.
+	 *
+	 * @param objects
+	 *            the models to save
+	 * @param batchSize
+	 *            number of models committed per transaction
+	 * @param massiveInsert
+	 *            declare OrientDB's massive insert intent for the duration of
+	 *            the run
+	 */
+	<T> BatchResult saveBatch(Collection<T> objects, int batchSize, boolean massiveInsert);
+
+	/**
+	 * Upserts the models keyed on their {@link DocumentModel#MODEL_ID}, see
+	 * {@link #saveOrUpdate(Object)}, in transactions of
+	 * <code>batch.size</code> models each.
+	 *
+	 * @throws BatchException
+	 *             after all batches were attempted, if any of them failed
+	 */
+	<T> void saveOrUpdate(Collection<T> objects);
+
+	/**
+	 * @see #saveOrUpdate(Collection)
+	 */
+	<T> void saveOrUpdate(T[] objects);
+
+	/**
+	 * Upserts the models in transactions of <code>batchSize</code> models
+	 * each. A failing batch is rolled back and reported in the result; the
+	 * remaining batches are still written. Inside a transaction started with
+	 * {@link #begin()} all models are upserted in that transaction, and their
+	 * models have to exist already since the schema cannot change inside it.
+	 */
+	<T> BatchResult saveOrUpdateBatch(Collection<T> objects, int batchSize);
+
+	/**
+	 * Removes the models in transactions of <code>batchSize</code> models
+	 * each. A failing batch is rolled back and reported in the result; the
+	 * remaining batches are still removed. Inside a transaction started with
+	 * {@link #begin()} all models are removed in that transaction.
+	 */
+	<T> BatchResult removeBatch(Collection<T> objects, int batchSize);
+
+	/**
+	 * Deletes the models with the given model ids using one command per
+	 * <code>batch.size</code> ids.
+	 *
+	 * @return the number of deleted models
+	 */
+	int delete(String modelName, Collection<String> modelIds);
+
+	/**
+	 * @see #delete(String, Collection)
+	 */
+	<T extends DocumentModel> int delete(Class<T> clazz, Collection<String> modelIds);
+
+	/**
+	 * Runs a query with named parameters and hydrates the results as models of
+	 * the given name.
+	 */
+	<T extends DocumentModel> List<T> executeQuery(String modelName, String query, Map<String, Object> params);
+
+	/**
+	 * Runs a query with named parameters and hydrates the results as models of
+	 * the given class.
+	 */
+	<T> List<T> executeQuery(Class<T> clazz, String query, Map<String, Object> params);
+
+	/**
+	 * Runs an SQL command, e.g. an update or delete.
+	 *
+	 * @return the result of the command
+	 */
+	Object executeUpdate(String query);
+
+	/**
+	 * Streams all models of a class, hydrating them one at a time as the
+	 * stream is consumed. The stream holds a database handle of the calling
+	 * thread and must be consumed and closed on that thread, preferably with
+	 * try-with-resources; reading or closing it on another thread throws an
+	 * {@link IllegalStateException}.
+	 */
+	<T extends DocumentModel> Stream<T> stream(String modelName);
+
+	/**
+	 * @see #stream(String)
+	 */
+	<T extends DocumentModel> Stream<T> stream(Class<T> clazz);
+
+	/**
+	 * Reads all models of a class, scanning its clusters concurrently and
+	 * hydrating the models of each cluster on the thread that read it. The
+	 * models are in no particular order. Without <code>pool.enabled</code>, or
+	 * inside a transaction, the class is read sequentially by the calling
+	 * thread.
+	 */
+	<T extends DocumentModel> List<T> findParallel(String modelName);
+
+	/**
+	 * @see #findParallel(String)
+	 */
+	<T extends DocumentModel> List<T> findParallel(Class<T> clazz);
+
+	/**
+	 * Unordered stream variant of {@link #findParallel(String)}. The clusters
+	 * are read as soon as the stream is created; it yields the models of a
+	 * cluster once that cluster has been read. Closing the stream cancels the
+	 * scans that have not started yet.
+	 */
+	<T extends DocumentModel> Stream<T> streamParallel(String modelName);
+
+	/**
+	 * @see #streamParallel(String)
+	 */
+	<T extends DocumentModel> Stream<T> streamParallel(Class<T> clazz);
+
+	/**
+	 * Streams the results of a query. The query runs asynchronously and hands
+	 * its results over through a bounded buffer, so memory use does not grow
+	 * with the number of results. Closing the stream stops the query. So does
+	 * leaving the buffer full for <code>stream.timeout</code> milliseconds, in
+	 * case the stream is neither read to the end nor closed. Without
+	 * <code>pool.enabled</code>, or inside a transaction, the query is run to
+	 * completion by the calling thread before the stream is returned.
+	 */
+	<T extends DocumentModel> Stream<T> streamQuery(String modelName, String query, Map<String, Object> params);
+
+	/**
+	 * @see #streamQuery(String, String, Map)
+	 */
+	<T> Stream<T> streamQuery(Class<T> clazz, String query, Map<String, Object> params);
+
+	/**
+	 * Reads a page of models using keyset pagination on the record id, so
+	 * every page costs the same no matter how deep it is.
+	 *
+	 * @param cursor
+	 *            {@link Page#getCursor()} of the previous page, or
+	 *            <code>null</code> for the first page
+	 * @param pageSize
+	 *            maximum number of models on the page
+	 * @return the page, empty if the model has no class yet
+	 */
+	<T extends DocumentModel> Page<T> findPage(String modelName, String cursor, int pageSize);
+
+	/**
+	 * @see #findPage(String, String, int)
+	 */
+	<T extends DocumentModel> Page<T> findPage(Class<T> clazz, String cursor, int pageSize);
+
+	/**
+	 * Runs criteria as one parameterized query, filtering, ordering and
+	 * limiting in the database. With a projection the models hold only the
+	 * projected properties.
+	 *
+	 * @return the matching models, empty if the model has no class yet
+	 */
+	<T> List<T> find(Criteria<T> criteria);
+
+	/**
+	 * Reads only the given fields of all models of a class. The models hold
+	 * the projected properties and their id; writing one back with
+	 * {@link #update(Object)} leaves the other properties untouched.
+	 *
+	 * @see #find(Criteria)
+	 */
+	<T extends DocumentModel> List<T> findProjection(String modelName, List<String> fields);
+
+	/**
+	 * @see #findProjection(String, List)
+	 */
+	<T extends DocumentModel> List<T> findProjection(Class<T> clazz, List<String> fields);
+
+	/**
+	 * Projection variant of {@link #findByProperty(String, String, Object)}.
+	 *
+	 * @see #findProjection(String, List)
+	 */
+	<T> List<T> findByPropertyProjection(String modelName, String propertyName, Object value, List<String> fields);
+
+	/**
+	 * @see #findByPropertyProjection(String, String, Object, List)
+	 */
+	<T> List<T> findByPropertyProjection(Class<T> clazz, String propertyName, Object value, List<String> fields);
+
+	/**
+	 * Projection variant of {@link #findByProperties(String, Map)}.
+	 *
+	 * @see #findProjection(String, List)
+	 */
+	<T extends DocumentModel> List<T> findByPropertiesProjection(String modelName, Map<String, Object> properties,
+			List<String> fields);
+
+	/**
+	 * @see #findByPropertiesProjection(String, Map, List)
+	 */
+	<T> List<T> findByPropertiesProjection(Class<T> clazz, Map<String, Object> properties, List<String> fields);
+
+	/**
+	 * Lazy variant of {@link #find(String)}. The returned models implement
+	 * {@link DocumentModel} only, not the model class, and read a field from
+	 * the stored document when <code>getProperty</code> first asks for it;
+	 * any other call reads all fields. Lazy models are not thread safe and
+	 * are not tracked for partial updates. Use {@link #detach(DocumentModel)}
+	 * for models that are kept after the service may have gone away or are
+	 * handed to other threads.
+	 */
+	List<DocumentModel> findLazy(String modelName);
+
+	/**
+	 * Lazy variant of {@link #findByProperty(String, String, Object)}.
+	 *
+	 * @see #findLazy(String)
+	 */
+	List<DocumentModel> findByPropertyLazy(String modelName, String propertyName, Object value);
+
+	/**
+	 * Lazy variant of {@link #findByProperties(String, Map)}.
+	 *
+	 * @see #findLazy(String)
+	 */
+	List<DocumentModel> findByPropertiesLazy(String modelName, Map<String, Object> properties);
+
+	/**
+	 * Reads all remaining fields of a lazy model, including embedded models.
+	 *
+	 * @return the fully read model, an instance of the model class; models
+	 *         that are not lazy are returned as they are
+	 */
+	<T extends DocumentModel> T detach(T model);
+
+	/**
+	 * Subscribes to the inserts, updates and removals of a model written
+	 * through GreenDB, including SQL commands run by this service. Changes made
+	 * in a transaction are delivered after it commits. Up to
+	 * <code>changeFeed.bufferSize</code> changes (1024 by default) are
+	 * buffered for the subscriber; what happens beyond that is decided by
+	 * <code>changeFeed.overflow</code>, {@link OverflowPolicy#DROP_OLDEST} by
+	 * default.
+	 */
+	<T extends DocumentModel> Subscription subscribe(String modelName, ChangeListener<T> listener);
+
+	/**
+	 * @see #subscribe(String, ChangeListener)
+	 */
+	<T extends DocumentModel> Subscription subscribe(Class<T> clazz, ChangeListener<T> listener);
+
+	/**
+	 * @see #subscribe(String, ChangeListener)
+	 */
+	<T extends DocumentModel> Subscription subscribe(String modelName, ChangeListener<T> listener, int bufferSize,
+			OverflowPolicy overflow);
+
+	/**
+	 * @return the number of models matching the criteria
+	 */
+	long count(Criteria<?> criteria);
+
+	/**
+	 * Deletes the models matching the criteria with a single command.
+	 *
+	 * @return the number of deleted models
+	 * @throws IllegalArgumentException
+	 *             if the criteria have an order, limit or projection
+	 */
+	int delete(Criteria<?> criteria);
+
+	/**
+	 * @return hit, miss and eviction counters of the entity cache, all zero
+	 *         unless <code>entityCache.models</code> is set
+	 */
+	CacheStatistics getEntityCacheStatistics();
+
+	/**
+	 * @return hit, miss and eviction counters of the query result cache, all
+	 *         zero unless <code>resultCache.enabled</code> is set
+	 */
+	CacheStatistics getResultCacheStatistics();
+
+	/**
+	 * @return the counters of the query result cache per normalized query text,
+	 *         for the most recently used queries
+	 */
+	Map<String, CacheStatistics> getResultCacheQueryStatistics();
+
+	/**
+	 * Creates the class of a model, if needed, with a unique index on
+	 * {@link DocumentModel#MODEL_ID} and an index on each of the given
+	 * properties. With <code>schema.mode</code> set to <code>hybrid</code> or
+	 * <code>full</code>, the properties of the model class are declared with
+	 * their types; <code>full</code> also makes the class strict.
+	 */
+	void addModel(String modelName, String... indexedProperties);
+
+	/**
+	 * @return properties that were queried at least
+	 *         <code>indexAdvisor.threshold</code> times without an index, with
+	 *         their query counts, keyed by <code>model.property</code>. Empty
+	 *         unless <code>indexAdvisor.enabled</code> is set.
+	 */
+	Map<String, Long> getIndexSuggestions();
+
+}
@@ -0,0 +1,135 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.greenscape.greendb.persistence.api.PersistenceMetrics.Operation;
+
+/**
+ * Point in time statistics of one operation on one model. Latencies are kept
+ * in a histogram of power of two buckets, so percentiles are accurate to a
+ * factor of two.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class OperationStatistics {
+
+	private final String modelName;
+	private final Operation operation;
+	private final long calls;
+	private final long rows;
+	private final long fields;
+	private final long totalTime;
+	private final long maxTime;
+	private final long[] histogram;
+
+	/**
+	 * @param histogram
+	 *            number of calls per latency bucket; bucket <code>i</code>
+	 *            holds latencies from 2<sup>i</sup> up to 2<sup>i+1</sup>
+	 *            nanoseconds
+	 */
+	public OperationStatistics(String modelName, Operation operation, long calls, long rows, long fields,
+			long totalTime, long maxTime, long[] histogram) {
+		this.modelName = modelName;
+		this.operation = operation;
+		this.calls = calls;
+		this.rows = rows;
+		this.fields = fields;
+		this.totalTime = totalTime;
+		this.maxTime = maxTime;
+		this.histogram = histogram.clone();
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return number of calls, including failed ones
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return number of models written, read or deleted
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return number of fields written or hydrated
+	 */
+	public long getFields() {
+		return fields;
+	}
+
+	public double getRowsPerCall() {
+		return calls == 0 ? 0 : (double) rows / calls;
+	}
+
+	/**
+	 * @return total time spent in the operation, in nanoseconds
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * @return the longest call, in nanoseconds
+	 */
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * @return the mean latency, in nanoseconds
+	 */
+	public long getMeanTime() {
+		return calls == 0 ? 0 : totalTime / calls;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return upper bound of the latency bucket holding the percentile, in
+	 *         nanoseconds
+	 */
+	public long getPercentileTime(double percentile) {
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank && histogram[i] > 0) {
+				return Math.min(maxTime, i >= 62 ? Long.MAX_VALUE : 1L << (i + 1));
+			}
+		}
+		return maxTime;
+	}
+
+	public long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "OperationStatistics [model=" + modelName + ", operation=" + operation + ", calls=" + calls
+				+ ", rows=" + rows + ", fields=" + fields + ", mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanTime())
+				+ "us, p99=" + TimeUnit.NANOSECONDS.toMicros(getPercentileTime(99)) + "us, max="
+				+ TimeUnit.NANOSECONDS.toMicros(maxTime) + "us]";
+	}
+
+}
@@ -0,0 +1,21 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * What a subscription does with a change when its buffer is full. Writers
+ * never wait for a subscriber.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public enum OverflowPolicy {
+
+	/** Drops the oldest buffered change to make room. */
+	DROP_OLDEST,
+
+	/** Drops the new change. */
+	DROP_NEWEST,
+
+	/** Drops all buffered changes and closes the subscription. */
+	CLOSE
+
+}
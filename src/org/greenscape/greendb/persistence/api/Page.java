@@ -0,0 +1,44 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a keyset paginated read. The cursor is the record id of the
+ * last model of the page; pass it back to fetch the next page.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class Page<T> {
+
+	private final List<T> items;
+	private final String cursor;
+
+	public Page(List<T> items, String cursor) {
+		this.items = Collections.unmodifiableList(items);
+		this.cursor = cursor;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return the cursor of the next page, or <code>null</code> if this is the
+	 *         last page
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public boolean hasNext() {
+		return cursor != null;
+	}
+
+	@Override
+	public String toString() {
+		return "Page [items=" + items.size() + ", cursor=" + cursor + "]";
+	}
+
+}
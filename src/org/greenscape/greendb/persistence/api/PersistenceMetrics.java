@@ -0,0 +1,47 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.List;
+
+/**
+ * Per model and operation counters and latency histograms of the persistence
+ * service. Registered as a service when <code>metrics.enabled</code> is set.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public interface PersistenceMetrics {
+
+	/**
+	 * The instrumented operations.
+	 */
+	enum Operation {
+		SAVE, UPDATE, FIND, QUERY, DELETE,
+		/** Inserts or updates by model id, see saveOrUpdate. */
+		UPSERT,
+		/**
+		 * Documents turned into models by any read. Calls and rows count
+		 * documents, fields count the fields copied; it is not timed.
+		 */
+		HYDRATE
+	}
+
+	/**
+	 * Model name used for statements that are not bound to a model, e.g.
+	 * {@link org.greenscape.persistence.PersistenceService#executeQuery(String)}.
+	 */
+	String ANY_MODEL = "*";
+
+	/**
+	 * @return the statistics of every model and operation that was used
+	 */
+	List<OperationStatistics> getStatistics();
+
+	/**
+	 * @return the statistics of an operation on a model, or <code>null</code>
+	 *         if it was not used
+	 */
+	OperationStatistics getStatistics(String modelName, Operation operation);
+
+	void reset();
+
+}
@@ -0,0 +1,80 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A query that took longer than the slow query threshold.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class SlowQuery {
+
+	private final String query;
+	private final Map<String, Object> parameters;
+	private final int rows;
+	private final long time;
+	private final long timestamp;
+	private final String plan;
+
+	public SlowQuery(String query, Map<String, Object> parameters, int rows, long time, long timestamp, String plan) {
+		this.query = query;
+		this.parameters = Collections.unmodifiableMap(parameters);
+		this.rows = rows;
+		this.time = time;
+		this.timestamp = timestamp;
+		this.plan = plan;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the bound parameters by name, positional parameters by their
+	 *         index; values are replaced by <code>?</code> if
+	 *         <code>slowQuery.redact</code> is set
+	 */
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return number of models returned
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return duration of the call, in nanoseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return when the call finished, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the output of OrientDB's <code>explain</code> for the query as
+	 *         JSON, e.g. the involved indexes and the number of documents
+	 *         read, or <code>null</code> if it was not captured
+	 */
+	public String getPlan() {
+		return plan;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQuery [query=" + query + ", parameters=" + parameters + ", rows=" + rows + ", time="
+				+ TimeUnit.NANOSECONDS.toMillis(time) + "ms, plan=" + plan + "]";
+	}
+
+}
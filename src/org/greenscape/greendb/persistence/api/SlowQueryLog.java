@@ -0,0 +1,30 @@
+package org.greenscape.greendb.persistence.api;
+
+import java.util.List;
+
+/**
+ * The most recent queries that exceeded <code>slowQuery.threshold</code>
+ * milliseconds, together with their execution plan. Registered as a service
+ * when the threshold is set.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public interface SlowQueryLog {
+
+	/**
+	 * @return the logged queries, oldest first; at most
+	 *         <code>slowQuery.size</code> of them. With
+	 *         <code>slowQuery.explain</code> a query is logged once its plan
+	 *         has been captured.
+	 */
+	List<SlowQuery> getSlowQueries();
+
+	/**
+	 * @return the threshold in milliseconds
+	 */
+	long getThreshold();
+
+	void clear();
+
+}
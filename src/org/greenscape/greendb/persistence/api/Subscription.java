@@ -0,0 +1,24 @@
+package org.greenscape.greendb.persistence.api;
+
+/**
+ * A registered {@link ChangeListener}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public interface Subscription extends AutoCloseable {
+
+	/**
+	 * Stops the delivery of changes. Changes still buffered are dropped.
+	 */
+	@Override
+	void close();
+
+	boolean isClosed();
+
+	/**
+	 * @return number of changes dropped so far because the buffer was full
+	 */
+	long getDropped();
+
+}
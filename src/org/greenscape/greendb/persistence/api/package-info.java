@@ -0,0 +1,8 @@
+/**
+ * GreenDB specific persistence API.
+ */
+/**
+ * @author Sheikh Sajid
+ *
+ */
+package org.greenscape.greendb.persistence.api;
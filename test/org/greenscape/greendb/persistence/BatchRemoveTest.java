@@ -0,0 +1,132 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenscape.greendb.persistence.api.BatchException;
+import org.greenscape.greendb.persistence.api.BatchResult;
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Batched removals, deletes by model id and the failures reported by the
+ * batched writes.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class BatchRemoveTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(GreenDBPersistence.SCHEMA_MODE, "full");
+		config.put(GreenDBPersistence.BATCH_SIZE, 2);
+		database = new BenchmarkDatabase(config, SchemaModel.class);
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void removeInBatches() {
+		List<BenchModel> models = save(5);
+
+		BatchResult result = persistence.removeBatch(models, 2);
+
+		assertEquals(3, result.getBatches());
+		assertEquals(5, result.getSucceeded());
+		assertTrue(persistence.find(BenchModel.class).isEmpty());
+	}
+
+	@Test
+	public void deleteByModelIds() {
+		List<BenchModel> models = save(5);
+		List<String> modelIds = new ArrayList<>();
+		for (BenchModel model : models.subList(0, 3)) {
+			modelIds.add((String) model.getProperty(DocumentModel.MODEL_ID));
+		}
+		modelIds.add("no-such-model");
+
+		assertEquals(3, persistence.delete(BenchModel.NAME, modelIds));
+		assertEquals(2, persistence.find(BenchModel.class).size());
+	}
+
+	@Test
+	public void failedSaveIsReported() {
+		try {
+			persistence.save(invalidSchemaModels());
+			fail("Saved a model with an undeclared property");
+		} catch (BatchException e) {
+			assertFailure(e, "saved");
+		}
+	}
+
+	@Test
+	public void failedUpsertIsReported() {
+		try {
+			persistence.saveOrUpdate(invalidSchemaModels());
+			fail("Upserted a model with an undeclared property");
+		} catch (BatchException e) {
+			assertFailure(e, "upserted");
+		}
+	}
+
+	@Test
+	public void failedRemoveIsReported() {
+		List<BenchModel> models = save(3);
+		// a record id in a cluster that does not exist
+		models.get(2).setProperty(DocumentMapper.ID_FIELD, "#999:0");
+		try {
+			persistence.remove(models.toArray());
+			fail("Removed a record of a missing cluster");
+		} catch (BatchException e) {
+			assertFailure(e, "removed");
+		}
+		assertEquals(1, persistence.find(BenchModel.class).size());
+	}
+
+	private List<BenchModel> save(int count) {
+		List<BenchModel> models = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			BenchModel model = BenchModel.create(i, 2, 0);
+			persistence.save(model);
+			models.add(model);
+		}
+		return models;
+	}
+
+	/**
+	 * @return three models, the last one failing the second batch
+	 */
+	private static SchemaModel[] invalidSchemaModels() {
+		SchemaModel[] models = new SchemaModel[3];
+		for (int i = 0; i < models.length; i++) {
+			models[i] = new SchemaModel();
+			models[i].setTitle("model " + i);
+		}
+		models[2].setProperty("undeclared", "value");
+		return models;
+	}
+
+	private static void assertFailure(BatchException e, String operation) {
+		assertEquals("1 of 3 models could not be " + operation + " in 1 failed batch(es)", e.getMessage());
+		assertEquals(2, e.getResult().getFailures().get(0).getOffset());
+		assertEquals(2, e.getResult().getSucceeded());
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.greenscape.greendb.persistence.api.BatchResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Models saved in batched transactions. The schema model's class is strict,
+ * so a model with an undeclared property fails its batch.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class BatchSaveTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(GreenDBPersistence.SCHEMA_MODE,
+				"full"), SchemaModel.class);
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void everyBatchIsCommitted() {
+		List<BenchModel> models = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			models.add(BenchModel.create(i, 4, 1));
+		}
+
+		BatchResult result = persistence.saveBatch(models, 3, true);
+
+		assertEquals(4, result.getBatches());
+		assertEquals(10, result.getSucceeded());
+		assertEquals(0, result.getFailed());
+		assertEquals(10, persistence.find(BenchModel.class).size());
+		for (BenchModel model : models) {
+			assertNotNull(model.getProperty(DocumentMapper.ID_FIELD));
+		}
+	}
+
+	@Test
+	public void failedBatchIsRolledBackAlone() {
+		List<SchemaModel> models = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			SchemaModel model = new SchemaModel();
+			model.setTitle("model " + i);
+			models.add(model);
+		}
+		models.get(2).setProperty("undeclared", "value");
+
+		BatchResult result = persistence.saveBatch(models, 2, false);
+
+		assertEquals(3, result.getBatches());
+		assertEquals(3, result.getSucceeded());
+		assertEquals(2, result.getFailed());
+		assertEquals(1, result.getFailures().size());
+		assertEquals(2, result.getFailures().get(0).getOffset());
+		assertEquals(2, result.getFailures().get(0).getCount());
+		assertNotNull(result.getFailures().get(0).getCause());
+		assertEquals(3, persistence.find(SchemaModel.class).size());
+		assertNull(models.get(3).getProperty(DocumentMapper.ID_FIELD));
+		assertNotNull(models.get(4).getProperty(DocumentMapper.ID_FIELD));
+	}
+
+}
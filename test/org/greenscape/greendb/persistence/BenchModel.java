@@ -0,0 +1,47 @@
+package org.greenscape.greendb.persistence;
+
+import org.greenscape.persistence.PersistedModelBase;
+import org.greenscape.persistence.annotations.Model;
+
+/**
+ * Model used by the benchmarks. Its properties are generated: <code>f0</code>
+ * to <code>f&lt;width-1&gt;</code>, an indexed <code>category</code> and a
+ * chain of embedded <code>child</code> models.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@Model(name = BenchModel.NAME)
+public class BenchModel extends PersistedModelBase {
+
+	static final String NAME = "BenchModel";
+	static final String CATEGORY = "category";
+	static final String CHILD = "child";
+	static final int CATEGORIES = 100;
+
+	/**
+	 * @param width
+	 *            number of generated fields
+	 * @param depth
+	 *            number of nested embedded models
+	 */
+	static BenchModel create(int seed, int width, int depth) {
+		BenchModel model = new BenchModel();
+		fill(model, seed, width, depth);
+		model.setProperty(CATEGORY, seed % CATEGORIES);
+		return model;
+	}
+
+	private static void fill(PersistedModelBase model, int seed, int width, int depth) {
+		for (int i = 0; i < width; i++) {
+			// mix of the two most common field types
+			model.setProperty("f" + i, i % 2 == 0 ? "value-" + seed + "-" + i : (Object) (seed * 31 + i));
+		}
+		if (depth > 0) {
+			PersistedModelBase child = new PersistedModelBase();
+			fill(child, seed, Math.max(1, width / 4), depth - 1);
+			model.setProperty(CHILD, child);
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.greenscape.greendb.persistence;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.greenscape.core.ModelResource;
+import org.greenscape.core.ResourceRegistry;
+import org.greenscape.greendb.Connection;
+import org.greenscape.persistence.PersistedModelBase;
+import org.greenscape.persistence.annotations.Model;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+
+/**
+ * A {@link GreenDBPersistence} wired to an in-memory OrientDB database, for
+ * the benchmarks and tests. The OSGi services it depends on are stubbed with
+ * dynamic proxies: every model name resolves to {@link BenchModel}, to one of
+ * the extra model classes passed in or, for embedded documents, to
+ * {@link PersistedModelBase}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	private final String url = "memory:greendb-bench-" + databases.incrementAndGet();
+	private final ODatabaseDocumentTx admin;
+	private final Connection connection;
+	private final GreenDBPersistence persistence = new GreenDBPersistence();
+
+	/**
+	 * @param config
+	 *            component properties of the persistence service
+	 * @param models
+	 *            model classes to register besides {@link BenchModel}; their
+	 *            classes are created as well
+	 */
+	BenchmarkDatabase(Map<String, Object> config, Class<?>... models) {
+		admin = new ODatabaseDocumentTx(url).create();
+		connection = stub(Connection.class,
+				Collections.singletonMap("getDatabaseDocument", args -> new ODatabaseDocumentTx(url).open("admin",
+						"admin")));
+		Map<String, Class<?>> classes = new LinkedHashMap<>();
+		classes.put(BenchModel.NAME.toLowerCase(), BenchModel.class);
+		for (Class<?> model : models) {
+			classes.put(model.getAnnotation(Model.class).name().toLowerCase(), model);
+		}
+		persistence.setConnection(connection);
+		persistence.setResourceRegistry(resourceRegistry(classes));
+		persistence.activate(componentContext(), config);
+		persistence.addModel(BenchModel.NAME, BenchModel.CATEGORY);
+		for (Class<?> model : models) {
+			persistence.addModel(model.getAnnotation(Model.class).name());
+		}
+	}
+
+	GreenDBPersistence getPersistence() {
+		return persistence;
+	}
+
+	/**
+	 * @return the stubbed connection, handing out a new handle per call
+	 */
+	Connection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public void close() {
+		persistence.deactivate();
+		persistence.unsetConnection(connection);
+		ODatabaseRecordThreadLocal.INSTANCE.set(admin);
+		admin.drop();
+	}
+
+	private static ResourceRegistry resourceRegistry(Map<String, Class<?>> classes) {
+		Map<String, Answer> registry = new HashMap<>();
+		registry.put("getResources", args -> {
+			List<ModelResource> resources = new ArrayList<>();
+			for (Class<?> model : classes.values()) {
+				resources.add(modelResource(model.getAnnotation(Model.class).name(), model.getName()));
+			}
+			return resources;
+		});
+		registry.put("getResource", args -> {
+			Class<?> model = classes.get(((String) args[0]).toLowerCase());
+			return modelResource((String) args[0], model == null ? null : model.getName());
+		});
+		return stub(ResourceRegistry.class, registry);
+	}
+
+	private static ModelResource modelResource(String name, String modelClass) {
+		Map<String, Answer> resource = new HashMap<>();
+		resource.put("getName", args -> name);
+		resource.put("getModelClass", args -> modelClass);
+		return stub(ModelResource.class, resource);
+	}
+
+	private static ComponentContext componentContext() {
+		Bundle bundle = stub(Bundle.class, Collections.singletonMap("loadClass",
+				args -> Class.forName((String) args[0], true, BenchmarkDatabase.class.getClassLoader())));
+		BundleContext context = stub(BundleContext.class, Collections.singletonMap("getBundle", args -> bundle));
+		return stub(ComponentContext.class, Collections.singletonMap("getBundleContext", args -> context));
+	}
+
+	/**
+	 * @return a proxy answering the given methods by name; other methods
+	 *         return <code>null</code>, zero or <code>false</code>
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T stub(Class<T> type, Map<String, Answer> answers) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Stub " + type.getSimpleName();
+			default:
+				break;
+			}
+			Answer answer = answers.get(method.getName());
+			Class<?> returnType = method.getReturnType();
+			Object value = answer == null ? null : answer.answer(args);
+			if (value instanceof Collection && returnType.isArray()) {
+				Collection<?> values = (Collection<?>) value;
+				return values.toArray((Object[]) Array.newInstance(returnType.getComponentType(), values.size()));
+			}
+			if (value == null && returnType.isPrimitive()) {
+				return returnType == void.class ? null : Array.get(Array.newInstance(returnType, 1), 0);
+			}
+			return value;
+		};
+		return (T) Proxy.newProxyInstance(BenchmarkDatabase.class.getClassLoader(), new Class<?>[] { type },
+				handler);
+	}
+
+	/**
+	 * Result of a stubbed method.
+	 */
+	interface Answer {
+		Object answer(Object[] args) throws Exception;
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Models sharded over several clusters and scanned in parallel.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ClusterLayoutTest {
+
+	private static final String LAYOUT = GreenDBPersistence.CLUSTERS_PREFIX + BenchModel.NAME;
+
+	@Test
+	public void roundRobinSpreadsInserts() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(LAYOUT,
+				"4"))) {
+			Map<Integer, Integer> clusters = saveAndCount(database.getPersistence(), 8);
+
+			assertEquals(4, clusters.size());
+			for (int count : clusters.values()) {
+				assertEquals(2, count);
+			}
+		}
+	}
+
+	@Test
+	public void threadAffineKeepsCluster() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(LAYOUT,
+				"3, thread-affine"))) {
+			Map<Integer, Integer> clusters = saveAndCount(database.getPersistence(), 6);
+
+			assertEquals(Collections.singletonMap(clusters.keySet().iterator().next(), 6), clusters);
+		}
+	}
+
+	@Test
+	public void parallelScanReadsAllClusters() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(LAYOUT, "4");
+		config.put(GreenDBPersistence.POOL_ENABLED, true);
+		try (BenchmarkDatabase database = new BenchmarkDatabase(config)) {
+			GreenDBPersistence persistence = database.getPersistence();
+			saveAndCount(persistence, 10);
+
+			assertEquals(10, persistence.findParallel(BenchModel.class).size());
+			assertEquals(10, persistence.streamParallel(BenchModel.NAME).count());
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void invalidCountIsRejected() {
+		new ClusterLayout(Collections.singletonMap(BenchModel.NAME, new String[] { "0" }));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void unknownStrategyIsRejected() {
+		new ClusterLayout(Collections.singletonMap(BenchModel.NAME, new String[] { "2", "random" }));
+	}
+
+	/**
+	 * @return the number of saved models by cluster id
+	 */
+	private static Map<Integer, Integer> saveAndCount(GreenDBPersistence persistence, int count) {
+		Map<Integer, Integer> clusters = new TreeMap<>();
+		for (int i = 0; i < count; i++) {
+			BenchModel model = BenchModel.create(i, 2, 0);
+			persistence.save(model);
+			int clusterId = new ORecordId((String) model.getProperty(DocumentMapper.ID_FIELD)).getClusterId();
+			clusters.merge(clusterId, 1, Integer::sum);
+		}
+		return clusters;
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenscape.greendb.persistence.api.Criteria;
+import org.junit.Test;
+
+/**
+ * SQL and parameters compiled from {@link Criteria}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class CriteriaCompilerTest {
+
+	@Test
+	public void selectWithoutPredicates() {
+		assertEquals("select from benchmodel", CriteriaCompiler.select(Criteria.from(BenchModel.NAME)));
+	}
+
+	@Test
+	public void predicatesAreParameterized() {
+		Criteria<BenchModel> criteria = Criteria.<BenchModel> from(BenchModel.NAME).eq("f0", "a").between(
+				BenchModel.CATEGORY, 1, 5).in("f1", Arrays.asList(1, 2)).isNull("f2").like("f3", "x%");
+
+		assertEquals("select from benchmodel where f0 = :p0 and category between :p1 and :p2 and f1 in (:p3)"
+				+ " and f2 is null and f3 like :p4", CriteriaCompiler.select(criteria));
+		Map<String, Object> params = new HashMap<>();
+		params.put("p0", "a");
+		params.put("p1", 1);
+		params.put("p2", 5);
+		params.put("p3", Arrays.asList(1, 2));
+		params.put("p4", "x%");
+		assertEquals(params, CriteriaCompiler.parameters(criteria));
+	}
+
+	@Test
+	public void orderAndProjection() {
+		Criteria<BenchModel> criteria = Criteria.<BenchModel> from(BenchModel.NAME).gt("f1", 3).orderBy("f0", false)
+				.orderBy(BenchModel.CATEGORY, true).select("f0", "f1");
+
+		assertEquals("select @rid as " + CriteriaCompiler.PROJECTION_RID + ", f0, f1 from benchmodel where f1 > :p0"
+				+ " order by f0 desc, category asc", CriteriaCompiler.select(criteria));
+	}
+
+	@Test
+	public void countAndDeleteIgnoreOrder() {
+		Criteria<BenchModel> criteria = Criteria.<BenchModel> from(BenchModel.NAME).ne("f0", "a").orderBy("f0",
+				true);
+
+		assertEquals("select count(*) from benchmodel where f0 <> :p0", CriteriaCompiler.count(criteria));
+		assertEquals("delete from benchmodel where f0 <> :p0", CriteriaCompiler.delete(criteria));
+	}
+
+	@Test
+	public void valuesAreNotInlined() {
+		Criteria<BenchModel> first = Criteria.<BenchModel> from(BenchModel.NAME).eq("f0", "a");
+		Criteria<BenchModel> second = Criteria.<BenchModel> from(BenchModel.NAME).eq("f0", "b");
+
+		assertEquals(CriteriaCompiler.select(first), CriteriaCompiler.select(second));
+		assertEquals(Collections.singletonMap("p0", "b"), CriteriaCompiler.parameters(second));
+	}
+
+	@Test
+	public void parametersAreBound() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(Collections.<String, Object> emptyMap())) {
+			GreenDBPersistence persistence = database.getPersistence();
+			for (int i = 0; i < 10; i++) {
+				persistence.save(BenchModel.create(i, 2, 0));
+			}
+			Criteria<BenchModel> criteria = Criteria.from(BenchModel.class).between(BenchModel.CATEGORY, 2, 6).in(
+					BenchModel.CATEGORY, Arrays.asList(1, 3, 5, 7)).orderBy(BenchModel.CATEGORY, false);
+
+			List<BenchModel> found = persistence.find(criteria);
+			assertEquals(2, found.size());
+			assertEquals(5, found.get(0).getProperty(BenchModel.CATEGORY));
+			assertEquals(3, found.get(1).getProperty(BenchModel.CATEGORY));
+			assertEquals(2, persistence.count(criteria));
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Borrowing and returning handles of a {@link DatabasePool}.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class DatabasePoolTest {
+
+	private BenchmarkDatabase database;
+	private DatabasePool pool;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		pool = new DatabasePool(database.getConnection(), 0, 1, 50);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void exhaustedPoolTimesOut() {
+		ODatabaseDocument db = pool.acquire();
+		long start = System.nanoTime();
+		try {
+			pool.acquire();
+			fail("Acquired a handle from an exhausted pool");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+		}
+		assertTrue(System.nanoTime() - start >= 50000000L);
+		pool.release(db);
+		ODatabaseDocument again = pool.acquire();
+		assertSame(db, again);
+		pool.release(again);
+	}
+
+	@Test
+	public void releaseRollsBack() {
+		ODatabaseDocument db = pool.acquire();
+		ODatabaseRecordThreadLocal.INSTANCE.set(db);
+		db.begin();
+		db.save(new ODocument(BenchModel.NAME.toLowerCase()).field("f0", "uncommitted"));
+		pool.release(db);
+		assertFalse(db.getTransaction().isActive());
+
+		ODatabaseDocument again = pool.acquire();
+		try {
+			ODatabaseRecordThreadLocal.INSTANCE.set(again);
+			assertEquals(0, again.countClass(BenchModel.NAME.toLowerCase()));
+		} finally {
+			pool.release(again);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedPoolRejectsAcquire() {
+		pool.close();
+		pool.acquire();
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenscape.greendb.persistence.api.ConcurrentUpdateException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Partial updates with <code>update.partial</code> set.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class DirtyTrackerTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(GreenDBPersistence.UPDATE_PARTIAL,
+				true));
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void changedValueIsWritten() {
+		String rid = save(BenchModel.create(1, 4, 0));
+		BenchModel loaded = load(rid);
+		loaded.setProperty("f0", "changed");
+		persistence.update(loaded);
+
+		BenchModel stored = load(rid);
+		assertEquals("changed", stored.getProperty("f0"));
+		assertEquals(loaded.getProperty("f1"), stored.getProperty("f1"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void nestedValueChangedInPlaceIsWritten() {
+		BenchModel model = BenchModel.create(2, 2, 0);
+		List<Map<String, Object>> entries = new ArrayList<>();
+		Map<String, Object> entry = new HashMap<>();
+		entry.put("key", "before");
+		entries.add(entry);
+		model.setProperty("entries", entries);
+		String rid = save(model);
+
+		BenchModel loaded = load(rid);
+		((List<Map<String, Object>>) loaded.getProperty("entries")).get(0).put("key", "after");
+		persistence.update(loaded);
+
+		List<Map<String, Object>> stored = (List<Map<String, Object>>) load(rid).getProperty("entries");
+		assertEquals("after", stored.get(0).get("key"));
+	}
+
+	@Test
+	public void dateChangedInPlaceIsWritten() {
+		BenchModel model = BenchModel.create(3, 2, 0);
+		model.setProperty("created", new Date(1000));
+		String rid = save(model);
+
+		BenchModel loaded = load(rid);
+		((Date) loaded.getProperty("created")).setTime(2000);
+		persistence.update(loaded);
+
+		assertEquals(2000, ((Date) load(rid).getProperty("created")).getTime());
+	}
+
+	@Test(expected = ConcurrentUpdateException.class)
+	public void staleUpdateIsRejected() {
+		String rid = save(BenchModel.create(4, 4, 0));
+		BenchModel first = load(rid);
+		BenchModel second = load(rid);
+
+		first.setProperty("f0", "first");
+		persistence.update(first);
+		second.setProperty("f0", "second");
+		persistence.update(second);
+	}
+
+	private String save(BenchModel model) {
+		persistence.save(model);
+		return (String) model.getProperty(DocumentMapper.ID_FIELD);
+	}
+
+	private BenchModel load(String rid) {
+		return persistence.find(BenchModel.NAME, new ORecordId(rid));
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Version stamps of the entity cache, kept per model.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class EntityCacheTest {
+
+	private BenchmarkDatabase database;
+	private EntityCache cache;
+
+	@Before
+	public void setUp() {
+		// documents are copied through the database bound to the thread
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		cache = new EntityCache(new String[] { "*" }, 10, 60000);
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void writeToOtherModelKeepsStamp() {
+		long stamp = cache.stamp("a");
+		cache.invalidate("b", "#10:0");
+		cache.put("a", stamp, new ODocument(new ORecordId("#9:1")));
+
+		assertNotNull(cache.get("#9:1"));
+	}
+
+	@Test
+	public void writeToSameModelRejectsPut() {
+		long stamp = cache.stamp("a");
+		cache.invalidate("a", "#9:2");
+		cache.put("a", stamp, new ODocument(new ORecordId("#9:1")));
+
+		assertNull(cache.get("#9:1"));
+	}
+
+	@Test
+	public void writeToUnknownModelRejectsPut() {
+		long stamp = cache.stamp("a");
+		cache.invalidate(null, "#9:2");
+		cache.put("a", stamp, new ODocument(new ORecordId("#9:1")));
+
+		assertNull(cache.get("#9:1"));
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.greenscape.greendb.persistence.api.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Keyset pagination over a class spread across several clusters.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class FindPageTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(GreenDBPersistence.CLUSTERS_PREFIX
+				+ BenchModel.NAME, "4"));
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void pagesCoverAllClusters() {
+		for (int i = 0; i < 25; i++) {
+			persistence.save(BenchModel.create(i, 2, 0));
+		}
+
+		List<ORecordId> rids = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			Page<BenchModel> page = persistence.findPage(BenchModel.class, cursor, 7);
+			for (BenchModel model : page.getItems()) {
+				rids.add(new ORecordId((String) model.getProperty(DocumentMapper.ID_FIELD)));
+			}
+			cursor = page.getCursor();
+			pages++;
+		} while (cursor != null);
+
+		assertEquals(4, pages);
+		assertEquals(25, rids.size());
+		Set<Integer> clusters = new HashSet<>();
+		for (int i = 0; i < rids.size(); i++) {
+			clusters.add(rids.get(i).getClusterId());
+			if (i > 0) {
+				assertTrue(rids.get(i - 1) + " before " + rids.get(i), rids.get(i - 1).compareTo(rids.get(i)) < 0);
+			}
+		}
+		assertEquals(4, clusters.size());
+	}
+
+	@Test
+	public void lastPageHasNoCursor() {
+		persistence.save(BenchModel.create(1, 2, 0));
+
+		Page<BenchModel> page = persistence.findPage(BenchModel.class, null, 1);
+		assertEquals(1, page.getItems().size());
+		assertFalse(page.hasNext());
+	}
+
+	@Test
+	public void unknownModelHasNoPages() {
+		Page<BenchModel> page = persistence.findPage("NoSuchModel", null, 10);
+		assertTrue(page.getItems().isEmpty());
+		assertNull(page.getCursor());
+	}
+
+}
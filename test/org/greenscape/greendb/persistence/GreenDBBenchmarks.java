@@ -0,0 +1,38 @@
+package org.greenscape.greendb.persistence;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package with the GC profiler, so allocation
+ * rates (<code>gc.alloc.rate.norm</code>, bytes per operation) are reported
+ * next to throughput. Accepts the usual JMH command line options, e.g. a
+ * benchmark name pattern or <code>-p width=32</code>.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class GreenDBBenchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		CommandLineOptions commandLine;
+		try {
+			commandLine = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(GreenDBBenchmarks.class.getPackage().getName() + ".*Benchmark");
+		}
+		new Runner(options.build()).run();
+	}
+
+}
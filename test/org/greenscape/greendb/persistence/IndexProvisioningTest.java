@@ -0,0 +1,90 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+
+/**
+ * Indexes created by <code>addModel</code> and by the index advisor.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class IndexProvisioningTest {
+
+	private static final String QUERIED = "f0";
+
+	@Test
+	public void addModelCreatesIndexes() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(Collections.<String, Object> emptyMap())) {
+			assertEquals(OClass.INDEX_TYPE.UNIQUE_HASH_INDEX.name(), indexType(database, DocumentModel.MODEL_ID));
+			assertEquals(OClass.INDEX_TYPE.NOTUNIQUE.name(), indexType(database, BenchModel.CATEGORY));
+			assertNull(indexType(database, QUERIED));
+		}
+	}
+
+	@Test
+	public void advisorSuggestsIndex() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(advisorConfig(false))) {
+			query(database.getPersistence(), 3);
+
+			assertEquals(Collections.singletonMap(BenchModel.NAME.toLowerCase() + "." + QUERIED, 3L), database
+					.getPersistence().getIndexSuggestions());
+			assertNull(indexType(database, QUERIED));
+		}
+	}
+
+	@Test
+	public void advisorCreatesIndex() {
+		try (BenchmarkDatabase database = new BenchmarkDatabase(advisorConfig(true))) {
+			query(database.getPersistence(), 2);
+
+			assertTrue(database.getPersistence().getIndexSuggestions().isEmpty());
+			assertEquals(OClass.INDEX_TYPE.NOTUNIQUE.name(), indexType(database, QUERIED));
+		}
+	}
+
+	private static Map<String, Object> advisorConfig(boolean autoCreate) {
+		Map<String, Object> config = new HashMap<>();
+		config.put(GreenDBPersistence.INDEX_ADVISOR_ENABLED, true);
+		config.put(GreenDBPersistence.INDEX_ADVISOR_THRESHOLD, 2);
+		config.put(GreenDBPersistence.INDEX_ADVISOR_AUTO_CREATE, autoCreate);
+		return config;
+	}
+
+	private static void query(GreenDBPersistence persistence, int times) {
+		BenchModel model = BenchModel.create(1, 2, 0);
+		persistence.save(model);
+		for (int i = 0; i < times; i++) {
+			assertEquals(1, persistence.findByProperty(BenchModel.NAME, QUERIED, model.getProperty(QUERIED))
+					.size());
+		}
+	}
+
+	/**
+	 * @return the type of the index on a property of the bench model, or
+	 *         <code>null</code>
+	 */
+	private static String indexType(BenchmarkDatabase database, String property) {
+		ODatabaseDocument db = database.getConnection().getDatabaseDocument();
+		try {
+			OClass cls = db.getMetadata().getSchema().getClass(BenchModel.NAME.toLowerCase());
+			OIndex<?> index = cls.getClassIndex(cls.getName() + "." + property);
+			return index == null ? null : index.getType();
+		} finally {
+			db.close();
+		}
+	}
+
+}
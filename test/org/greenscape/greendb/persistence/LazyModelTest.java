@@ -0,0 +1,72 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Writes through lazily hydrated models.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class LazyModelTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void loadUpdateRemove() {
+		BenchModel model = BenchModel.create(1, 4, 1);
+		persistence.save(model);
+		String rid = (String) model.getProperty(DocumentMapper.ID_FIELD);
+
+		List<DocumentModel> lazy = persistence.findLazy(BenchModel.NAME);
+		assertEquals(1, lazy.size());
+		DocumentModel loaded = lazy.get(0);
+		assertSame(BenchModel.class, LazyModel.modelClass(loaded));
+		assertEquals(rid, loaded.getProperty(DocumentMapper.ID_FIELD));
+
+		loaded.setProperty("f0", "changed");
+		persistence.update(loaded);
+		BenchModel stored = persistence.find(BenchModel.NAME, new ORecordId(rid));
+		assertEquals("changed", stored.getProperty("f0"));
+		assertEquals(model.getProperty("f1"), stored.getProperty("f1"));
+
+		persistence.remove(loaded);
+		assertNull(persistence.find(BenchModel.NAME, new ORecordId(rid)));
+	}
+
+	@Test
+	public void detach() {
+		BenchModel model = BenchModel.create(2, 4, 1);
+		persistence.save(model);
+
+		DocumentModel detached = persistence.detach(persistence.findLazy(BenchModel.NAME).get(0));
+		assertSame(BenchModel.class, detached.getClass());
+		assertEquals(model.getProperty("f0"), detached.getProperty("f0"));
+		persistence.update(detached);
+	}
+
+}
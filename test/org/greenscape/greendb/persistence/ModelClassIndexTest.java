@@ -0,0 +1,100 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.greenscape.core.ModelResource;
+import org.greenscape.core.ResourceRegistry;
+import org.greenscape.persistence.PersistedModelBase;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+/**
+ * Resolution of model names to classes through the resource registry.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ModelClassIndexTest {
+
+	private static final String PLAIN_MODEL = "PlainModel";
+	private static final String LATE_MODEL = "LateModel";
+
+	private final AtomicInteger listings = new AtomicInteger();
+	private final Map<String, ModelResource> registered = new HashMap<>();
+	private Bundle bundle;
+	private ModelClassIndex index;
+
+	@Before
+	public void setUp() {
+		registered.put(BenchModel.NAME.toLowerCase(), modelResource(BenchModel.NAME, BenchModel.class.getName()));
+		registered.put(PLAIN_MODEL.toLowerCase(), modelResource(PLAIN_MODEL, null));
+
+		bundle = BenchmarkDatabase.stub(Bundle.class, Collections.singletonMap("loadClass",
+				args -> Class.forName((String) args[0], true, ModelClassIndexTest.class.getClassLoader())));
+		BundleContext context = BenchmarkDatabase.stub(BundleContext.class, Collections.singletonMap("getBundle",
+				args -> bundle));
+		Map<String, BenchmarkDatabase.Answer> registry = new HashMap<>();
+		registry.put("getResources", args -> {
+			listings.incrementAndGet();
+			return new ArrayList<>(registered.values());
+		});
+		registry.put("getResource", args -> registered.get(((String) args[0]).toLowerCase()));
+
+		index = new ModelClassIndex();
+		index.open(context);
+		index.setResourceRegistry(BenchmarkDatabase.stub(ResourceRegistry.class, registry));
+	}
+
+	@Test
+	public void namesAreIndexedOnce() {
+		assertSame(BenchModel.class, index.getModelClass(BenchModel.NAME));
+		assertSame(BenchModel.class, index.getModelClass(BenchModel.NAME.toUpperCase()));
+		assertSame(PersistedModelBase.class, index.getModelClass(PLAIN_MODEL));
+		assertNull(index.findModelClass("NoSuchModel"));
+		assertNull(index.findModelClass("NoSuchModel"));
+
+		assertEquals(1, listings.get());
+	}
+
+	@Test
+	public void modelRegisteredLaterIsResolved() {
+		index.getModelClass(BenchModel.NAME);
+		registered.put(LATE_MODEL.toLowerCase(), modelResource(LATE_MODEL, null));
+
+		assertSame(PersistedModelBase.class, index.getModelClass(LATE_MODEL));
+		assertEquals(1, listings.get());
+	}
+
+	@Test
+	public void bundleChangeRebuildsIndex() {
+		index.getModelClass(BenchModel.NAME);
+		index.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+		index.getModelClass(BenchModel.NAME);
+
+		assertEquals(2, listings.get());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void unknownModelIsRejected() {
+		index.getModelClass("NoSuchModel");
+	}
+
+	private static ModelResource modelResource(String name, String modelClass) {
+		Map<String, BenchmarkDatabase.Answer> resource = new HashMap<>();
+		resource.put("getName", args -> name);
+		resource.put("getModelClass", args -> modelClass);
+		return BenchmarkDatabase.stub(ModelResource.class, resource);
+	}
+
+}
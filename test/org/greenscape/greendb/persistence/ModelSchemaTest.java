@@ -0,0 +1,73 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collections;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Writes to a class declared in <code>full</code> schema mode.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ModelSchemaTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(GreenDBPersistence.SCHEMA_MODE,
+				"full"), SchemaModel.class);
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void saveThenUpdate() {
+		SchemaModel model = new SchemaModel();
+		model.setTitle("first");
+		model.setCount(1);
+		persistence.save(model);
+
+		model.setTitle("second");
+		persistence.update(model);
+
+		SchemaModel stored = persistence.find(SchemaModel.NAME, new ORecordId((String) model.getProperty(
+				DocumentMapper.ID_FIELD)));
+		assertEquals("second", stored.getTitle());
+		assertEquals(Integer.valueOf(1), stored.getCount());
+	}
+
+	@Test
+	public void loadThenUpdate() {
+		SchemaModel model = new SchemaModel();
+		model.setTitle("first");
+		persistence.save(model);
+
+		SchemaModel loaded = persistence.findById(SchemaModel.class, (String) model
+				.getProperty(DocumentModel.MODEL_ID));
+		assertNotNull(loaded);
+		loaded.setCount(2);
+		persistence.update(loaded);
+		persistence.update(loaded);
+
+		SchemaModel stored = persistence.find(SchemaModel.NAME, new ORecordId((String) model.getProperty(
+				DocumentMapper.ID_FIELD)));
+		assertEquals("first", stored.getTitle());
+		assertEquals(Integer.valueOf(2), stored.getCount());
+	}
+
+}
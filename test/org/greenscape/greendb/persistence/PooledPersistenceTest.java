@@ -0,0 +1,83 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Binding pooled handles to the calling thread. The pool holds a single
+ * handle, so a handle that is not released, or acquired twice, makes the
+ * next call time out.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class PooledPersistenceTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(GreenDBPersistence.POOL_ENABLED, true);
+		config.put(GreenDBPersistence.POOL_MIN_SIZE, 0);
+		config.put(GreenDBPersistence.POOL_MAX_SIZE, 1);
+		config.put(GreenDBPersistence.POOL_ACQUIRE_TIMEOUT, 100);
+		database = new BenchmarkDatabase(config);
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void nestedCallsShareTheHandle() {
+		BenchModel model = BenchModel.create(1, 4, 0);
+		persistence.begin();
+		try {
+			persistence.save(model);
+			assertEquals(1, persistence.find(BenchModel.class).size());
+			persistence.update(model);
+		} catch (RuntimeException e) {
+			persistence.rollback();
+			throw e;
+		}
+		persistence.commit();
+
+		// the transaction's handle went back to the pool
+		assertNotNull(persistence.findById(BenchModel.class, (String) model.getProperty(DocumentModel.MODEL_ID)));
+	}
+
+	@Test
+	public void rollbackReleasesTheHandle() {
+		persistence.begin();
+		persistence.save(BenchModel.create(2, 4, 0));
+		persistence.rollback();
+
+		assertEquals(0, persistence.find(BenchModel.class).size());
+	}
+
+	@Test
+	public void failedCallReleasesTheHandle() {
+		try {
+			persistence.findByProperty("NoSuchModel", "f0", "value");
+			fail("Queried a model without a class");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		persistence.save(BenchModel.create(3, 4, 0));
+		assertEquals(1, persistence.find(BenchModel.class).size());
+	}
+
+}
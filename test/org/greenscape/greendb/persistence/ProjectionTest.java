@@ -0,0 +1,88 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Queries that read only some fields of the models.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ProjectionTest {
+
+	private static final List<String> FIELDS = Collections.singletonList("f1");
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+	private BenchModel model;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		persistence = database.getPersistence();
+		model = BenchModel.create(1, 4, 1);
+		persistence.save(model);
+		persistence.save(BenchModel.create(2, 4, 1));
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void onlyProjectedFieldsAreRead() {
+		List<BenchModel> found = persistence.findByPropertyProjection(BenchModel.class, "f0", model.getProperty("f0"),
+				FIELDS);
+
+		assertEquals(1, found.size());
+		BenchModel projected = found.get(0);
+		assertEquals(model.getProperty("f1"), projected.getProperty("f1"));
+		assertEquals(model.getProperty(DocumentMapper.ID_FIELD), projected.getProperty(DocumentMapper.ID_FIELD));
+		assertFalse(projected.getProperties().containsKey("f0"));
+		assertFalse(projected.getProperties().containsKey(BenchModel.CHILD));
+	}
+
+	@Test
+	public void collectionValuesMatchAny() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(BenchModel.CATEGORY, Arrays.asList(1, 2, 3));
+
+		assertEquals(2, persistence.findByPropertiesProjection(BenchModel.class, properties, FIELDS).size());
+		assertEquals(2, persistence.findProjection(BenchModel.NAME, FIELDS).size());
+	}
+
+	@Test
+	public void updateKeepsOtherFields() {
+		BenchModel projected = persistence.<BenchModel> findByPropertyProjection(BenchModel.NAME, "f0",
+				model.getProperty("f0"), FIELDS).get(0);
+		projected.setProperty("f1", 42);
+		persistence.update(projected);
+
+		BenchModel stored = persistence.find(BenchModel.NAME, new ORecordId((String) model
+				.getProperty(DocumentMapper.ID_FIELD)));
+		assertEquals(42, stored.getProperty("f1"));
+		assertEquals(model.getProperty("f0"), stored.getProperty("f0"));
+		assertNotNull(stored.getProperty(BenchModel.CHILD));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fieldsAreRequired() {
+		persistence.findProjection(BenchModel.class, Collections.<String> emptyList());
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.greenscape.persistence.DocumentModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Lookups, property queries and full scans of models of several widths and
+ * depths. The depth drives the cost of hydrating embedded documents.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+
+	@Param({ "8", "32", "128" })
+	int width;
+
+	@Param({ "0", "2" })
+	int depth;
+
+	@Param({ "10000" })
+	int models;
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+	private final List<ORecordId> recordIds = new ArrayList<>();
+	private final List<String> modelIds = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		persistence = database.getPersistence();
+		List<BenchModel> batch = new ArrayList<>();
+		for (int i = 0; i < models; i++) {
+			batch.add(BenchModel.create(i, width, depth));
+		}
+		persistence.save(batch);
+		for (BenchModel model : batch) {
+			recordIds.add(new ORecordId(model.getProperty("id").toString()));
+			modelIds.add((String) model.getProperty(DocumentModel.MODEL_ID));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		database.close();
+	}
+
+	@Benchmark
+	public Object findByRecordId() {
+		return persistence.find(BenchModel.NAME, recordIds.get(ThreadLocalRandom.current().nextInt(models)));
+	}
+
+	@Benchmark
+	public Object findByModelId() {
+		return persistence.findByModelId(BenchModel.NAME, modelIds.get(ThreadLocalRandom.current().nextInt(models)));
+	}
+
+	/**
+	 * Reads one of {@value BenchModel#CATEGORIES} categories through its
+	 * index.
+	 */
+	@Benchmark
+	public List<BenchModel> findByProperty() {
+		return persistence.findByProperty(BenchModel.class, BenchModel.CATEGORY, ThreadLocalRandom.current()
+				.nextInt(BenchModel.CATEGORIES));
+	}
+
+	@Benchmark
+	public List<BenchModel> findAll() {
+		return persistence.find(BenchModel.class);
+	}
+
+}
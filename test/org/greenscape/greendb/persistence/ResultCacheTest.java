@@ -0,0 +1,80 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Invalidation of cached query results by writes.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class ResultCacheTest {
+
+	private static final String QUERY = "select from benchmodel";
+	private static final Map<String, Object> NO_PARAMS = Collections.emptyMap();
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(
+				GreenDBPersistence.RESULT_CACHE_ENABLED, true));
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void commitInvalidates() {
+		persistence.save(BenchModel.create(1, 4, 0));
+		assertEquals(1, persistence.executeQuery(BenchModel.NAME, QUERY, NO_PARAMS).size());
+		assertEquals(1, persistence.executeQuery(BenchModel.NAME, QUERY, NO_PARAMS).size());
+		assertEquals(1, persistence.getResultCacheStatistics().getHits());
+
+		persistence.begin();
+		persistence.save(BenchModel.create(2, 4, 0));
+		persistence.commit();
+
+		assertEquals(2, persistence.executeQuery(BenchModel.NAME, QUERY, NO_PARAMS).size());
+		assertEquals(1, persistence.getResultCacheStatistics().getHits());
+	}
+
+	@Test
+	public void removeInvalidates() {
+		BenchModel model = BenchModel.create(1, 4, 0);
+		persistence.save(model);
+		assertEquals(1, persistence.executeQuery(BenchModel.NAME, QUERY, NO_PARAMS).size());
+
+		persistence.remove(model);
+		assertEquals(0, persistence.executeQuery(BenchModel.NAME, QUERY, NO_PARAMS).size());
+	}
+
+	@Test
+	public void reusedParametersDoNotHitStaleEntries() {
+		persistence.save(BenchModel.create(1, 4, 0));
+		persistence.save(BenchModel.create(2, 4, 0));
+		String query = QUERY + " where " + BenchModel.CATEGORY + " in :categories";
+		List<Integer> categories = new ArrayList<>();
+		categories.add(1);
+		Map<String, Object> params = Collections.<String, Object> singletonMap("categories", categories);
+		assertEquals(1, persistence.executeQuery(BenchModel.NAME, query, params).size());
+
+		categories.add(2);
+		assertEquals(2, persistence.executeQuery(BenchModel.NAME, query, params).size());
+		assertEquals(0, persistence.getResultCacheStatistics().getHits());
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.greenscape.greendb.persistence;
+
+import org.greenscape.persistence.PersistedModelBase;
+import org.greenscape.persistence.annotations.Model;
+
+/**
+ * Model with bean properties, used by the tests of declared schemas.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@Model(name = SchemaModel.NAME)
+public class SchemaModel extends PersistedModelBase {
+
+	static final String NAME = "SchemaModel";
+	static final String TITLE = "title";
+	static final String COUNT = "count";
+
+	public String getTitle() {
+		return (String) getProperty(TITLE);
+	}
+
+	public void setTitle(String title) {
+		setProperty(TITLE, title);
+	}
+
+	public Integer getCount() {
+		return (Integer) getProperty(COUNT);
+	}
+
+	public void setCount(Integer count) {
+		setProperty(COUNT, count);
+	}
+
+}
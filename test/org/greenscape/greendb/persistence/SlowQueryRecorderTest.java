@@ -0,0 +1,57 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.greenscape.greendb.persistence.api.SlowQuery;
+import org.junit.Test;
+
+/**
+ * The ring buffer of the slow query log.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class SlowQueryRecorderTest {
+
+	@Test
+	public void wrapsAround() {
+		SlowQueryRecorder recorder = new SlowQueryRecorder(0, 3, false, false);
+		for (int i = 0; i < 5; i++) {
+			recorder.record("query " + i, null, i, i, i, null);
+		}
+
+		List<SlowQuery> queries = recorder.getSlowQueries();
+		assertEquals(3, queries.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals("query " + (i + 2), queries.get(i).getQuery());
+		}
+	}
+
+	@Test
+	public void clearEmpties() {
+		SlowQueryRecorder recorder = new SlowQueryRecorder(0, 2, false, false);
+		recorder.record("query", null, 0, 0, 0, null);
+		recorder.clear();
+		assertTrue(recorder.getSlowQueries().isEmpty());
+
+		recorder.record("again", null, 0, 0, 0, null);
+		assertEquals("again", recorder.getSlowQueries().get(0).getQuery());
+	}
+
+	@Test
+	public void threshold() {
+		SlowQueryRecorder recorder = new SlowQueryRecorder(10, 1, false, false);
+		assertFalse(recorder.isSlow(9999999L));
+		assertTrue(recorder.isSlow(10000000L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyLog() {
+		new SlowQueryRecorder(0, 0, false, false);
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes queued by the unit of work of a transaction.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class UnitOfWorkTest {
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> singletonMap(
+				GreenDBPersistence.UNIT_OF_WORK_ENABLED, true));
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void insertAbsorbsUpdate() {
+		UnitOfWork unitOfWork = new UnitOfWork();
+		BenchModel model = BenchModel.create(1, 4, 0);
+		unitOfWork.save(BenchModel.NAME, model);
+		unitOfWork.update(BenchModel.NAME, model);
+
+		List<UnitOfWork.Pending> writes = unitOfWork.drain();
+		assertEquals(1, writes.size());
+		assertSame(model, writes.get(0).model);
+		assertSame(UnitOfWork.Action.INSERT, writes.get(0).action);
+	}
+
+	@Test
+	public void removeCancelsInsert() {
+		UnitOfWork unitOfWork = new UnitOfWork();
+		BenchModel model = BenchModel.create(1, 4, 0);
+		unitOfWork.save(BenchModel.NAME, model);
+		unitOfWork.remove(BenchModel.NAME, model, null);
+
+		assertTrue(unitOfWork.drain().isEmpty());
+	}
+
+	@Test
+	public void removalsComeFirst() {
+		UnitOfWork unitOfWork = new UnitOfWork();
+		BenchModel inserted = BenchModel.create(1, 4, 0);
+		BenchModel removed = BenchModel.create(2, 4, 0);
+		unitOfWork.save(BenchModel.NAME, inserted);
+		unitOfWork.remove(BenchModel.NAME, removed, "#9:0");
+
+		List<UnitOfWork.Pending> writes = unitOfWork.drain();
+		assertEquals(2, writes.size());
+		assertSame(UnitOfWork.Action.DELETE, writes.get(0).action);
+		assertSame(UnitOfWork.Action.INSERT, writes.get(1).action);
+	}
+
+	@Test
+	public void removedModelIdCanBeReinserted() {
+		BenchModel old = BenchModel.create(1, 4, 0);
+		persistence.save(old);
+		String modelId = (String) old.getProperty(DocumentModel.MODEL_ID);
+
+		BenchModel replacement = BenchModel.create(2, 4, 0);
+		persistence.begin();
+		persistence.remove(old);
+		persistence.save(replacement);
+		replacement.setProperty(DocumentModel.MODEL_ID, modelId);
+		persistence.commit();
+
+		assertEquals(1, persistence.find(BenchModel.class).size());
+		BenchModel stored = persistence.findById(BenchModel.class, modelId);
+		assertEquals(replacement.getProperty("f0"), stored.getProperty("f0"));
+	}
+
+	@Test
+	public void insertThenRemoveWritesNothing() {
+		BenchModel model = BenchModel.create(1, 4, 0);
+		persistence.begin();
+		persistence.save(model);
+		persistence.update(model);
+		persistence.remove(model);
+		persistence.commit();
+
+		assertEquals(0, persistence.find(BenchModel.class).size());
+	}
+
+	@Test
+	public void saveAssignsModelId() {
+		BenchModel model = BenchModel.create(1, 4, 0);
+		persistence.begin();
+		persistence.save(model);
+		String modelId = (String) model.getProperty(DocumentModel.MODEL_ID);
+		assertNotNull(modelId);
+		assertNull(model.getProperty(DocumentMapper.ID_FIELD));
+		persistence.commit();
+
+		assertNotNull(model.getProperty(DocumentMapper.ID_FIELD));
+		BenchModel stored = persistence.findById(BenchModel.class, modelId);
+		assertEquals(model.getProperty("f0"), stored.getProperty("f0"));
+	}
+
+	@Test
+	public void queryAppliesQueuedWrites() {
+		BenchModel model = BenchModel.create(2, 4, 0);
+		persistence.begin();
+		try {
+			persistence.save(model);
+			List<BenchModel> found = persistence.findByProperty(BenchModel.class, DocumentModel.MODEL_ID, model
+					.getProperty(DocumentModel.MODEL_ID));
+			assertEquals(1, found.size());
+			assertNotNull(model.getProperty(DocumentMapper.ID_FIELD));
+		} finally {
+			persistence.rollback();
+		}
+		assertEquals(0, persistence.find(BenchModel.class).size());
+	}
+
+}
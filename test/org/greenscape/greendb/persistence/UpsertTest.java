@@ -0,0 +1,110 @@
+package org.greenscape.greendb.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.greenscape.persistence.DocumentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Upserts keyed on the model id.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+public class UpsertTest {
+
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 20;
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(GreenDBPersistence.POOL_ENABLED, true);
+		config.put(GreenDBPersistence.POOL_MAX_SIZE, THREADS);
+		database = new BenchmarkDatabase(config);
+		persistence = database.getPersistence();
+	}
+
+	@After
+	public void tearDown() {
+		database.close();
+	}
+
+	@Test
+	public void insertThenUpdate() {
+		BenchModel model = BenchModel.create(1, 4, 0);
+		persistence.saveOrUpdate(model);
+		String rid = (String) model.getProperty(DocumentMapper.ID_FIELD);
+
+		model.setProperty("f0", "changed");
+		persistence.saveOrUpdate(model);
+
+		assertEquals(rid, model.getProperty(DocumentMapper.ID_FIELD));
+		List<BenchModel> stored = persistence.find(BenchModel.class);
+		assertEquals(1, stored.size());
+		assertEquals("changed", stored.get(0).getProperty("f0"));
+	}
+
+	/**
+	 * Threads upsert the same model id at once; an insert that loses the race
+	 * on the unique index is retried as an update.
+	 */
+	@Test
+	public void concurrentInsertsOfOneModelId() throws Exception {
+		CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				int thread = t;
+				results.add(executor.submit(() -> {
+					for (int round = 0; round < ROUNDS; round++) {
+						BenchModel model = BenchModel.create(thread, 4, 0);
+						model.setProperty(DocumentModel.MODEL_ID, "round-" + round);
+						barrier.await();
+						persistence.saveOrUpdate(model);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(ROUNDS, persistence.find(BenchModel.class).size());
+	}
+
+	@Test
+	public void missingModelInTransactionFails() {
+		// only the class of the bench model is created up front
+		SchemaModel model = new SchemaModel();
+		model.setTitle("title");
+		persistence.begin();
+		try {
+			persistence.saveOrUpdate(model);
+			fail("Created a class inside a transaction");
+		} catch (RuntimeException e) {
+			// expected
+		} finally {
+			persistence.rollback();
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.greenscape.greendb.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single and bulk saves of models of several widths and depths.
+ *
+ * @author Sheikh Sajid
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+
+	private static final int BULK_SIZE = 1000;
+
+	@Param({ "8", "32", "128" })
+	int width;
+
+	@Param({ "0", "2" })
+	int depth;
+
+	private BenchmarkDatabase database;
+	private GreenDBPersistence persistence;
+	private int seed;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		database = new BenchmarkDatabase(Collections.<String, Object> emptyMap());
+		persistence = database.getPersistence();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		database.close();
+	}
+
+	@Benchmark
+	public BenchModel save() {
+		BenchModel model = BenchModel.create(seed++, width, depth);
+		persistence.save(BenchModel.NAME, model);
+		return model;
+	}
+
+	/**
+	 * Throughput is in bulks of {@value #BULK_SIZE} models.
+	 */
+	@Benchmark
+	public List<BenchModel> saveBulk() {
+		List<BenchModel> models = new ArrayList<>(BULK_SIZE);
+		for (int i = 0; i < BULK_SIZE; i++) {
+			models.add(BenchModel.create(seed++, width, depth));
+		}
+		persistence.save(models);
+		return models;
+	}
+
+}